@@ -0,0 +1,180 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.audit;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dcm4che3.audit.AuditMessage;
+import org.dcm4che3.net.audit.AuditLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of audit messages, which are sent to the Audit Record
+ * Repository by one thread of the device executor, instead of by the thread
+ * processing the audited request. If the queue is full, the message is sent
+ * by the calling thread, so no audit message is dropped and a slow Audit
+ * Record Repository slows down the audited requests only after the queue
+ * filled up, or if the executor rejects the sending task.
+ */
+class AuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(AuditMessageQueue.class);
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static class QueuedMessage {
+        final AuditMessage msg;
+        final AuditLogger logger;
+        final Calendar timeStamp;
+
+        QueuedMessage(AuditMessage msg, AuditLogger logger) {
+            this.msg = msg;
+            this.logger = logger;
+            this.timeStamp = logger.timeStamp();
+        }
+    }
+
+    private final int capacity;
+    private final LinkedBlockingQueue<QueuedMessage> queue;
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong sendTimeNanos = new AtomicLong();
+    private final Object writeLock = new Object();
+
+    AuditMessageQueue(int capacity) {
+        this.capacity = capacity;
+        this.queue = new LinkedBlockingQueue<QueuedMessage>(capacity);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    long getSentMessages() {
+        return sent.get();
+    }
+
+    long getAverageSendTimeMillis() {
+        long n = sent.get();
+        return n > 0 ? sendTimeNanos.get() / n / 1000000L : 0L;
+    }
+
+    void send(AuditMessage msg, AuditLogger logger, Executor executor) {
+        QueuedMessage queued = new QueuedMessage(msg, logger);
+        if (!queue.offer(queued)) {
+            LOG.warn("Audit message queue full ({} messages) - send audit message synchronously",
+                    capacity);
+            write(queued);
+            return;
+        }
+        if (sending.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                sending.set(false);
+                LOG.warn("Failed to schedule sending of audit messages - send audit messages synchronously: {}",
+                        e.getMessage());
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Sends all queued messages by the calling thread, after a batch
+     * currently sent by the device executor was completed.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            QueuedMessage queued;
+            while ((queued = queue.poll()) != null)
+                write(queued);
+        }
+    }
+
+    private void drain() {
+        List<QueuedMessage> batch = new ArrayList<QueuedMessage>(MAX_BATCH_SIZE);
+        for (;;) {
+            queue.drainTo(batch, MAX_BATCH_SIZE);
+            if (batch.isEmpty()) {
+                sending.set(false);
+                // a message may have been queued after drainTo and before the reset
+                if (queue.isEmpty() || !sending.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+            synchronized (writeLock) {
+                for (QueuedMessage queued : batch)
+                    write(queued);
+            }
+            LOG.debug("Sent {} audit messages, {} queued, average send time {} ms",
+                    batch.size(), queue.size(), getAverageSendTimeMillis());
+            batch.clear();
+        }
+    }
+
+    private void write(QueuedMessage queued) {
+        long start = System.nanoTime();
+        try {
+            queued.logger.write(queued.timeStamp, queued.msg);
+        } catch (Exception e) {
+            LOG.error("Failed to write audit log message: {}", e.getMessage());
+            LOG.debug(e.getMessage(), e);
+        }
+        sendTimeNanos.addAndGet(System.nanoTime() - start);
+        sent.incrementAndGet();
+    }
+}
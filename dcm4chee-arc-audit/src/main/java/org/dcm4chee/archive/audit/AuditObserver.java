@@ -41,6 +41,7 @@ package org.dcm4chee.archive.audit;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
@@ -60,6 +61,7 @@ import org.dcm4che3.net.Device;
 import org.dcm4che3.net.audit.AuditLogger;
 import org.dcm4chee.archive.ArchiveServiceStarted;
 import org.dcm4chee.archive.ArchiveServiceStopped;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.StoreAction;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.event.ConnectionEvent;
@@ -92,6 +94,9 @@ public class AuditObserver {
     protected static final Logger LOG = LoggerFactory
             .getLogger(AuditObserver.class);
 
+    private final AtomicReference<AuditMessageQueue> auditMessageQueue =
+            new AtomicReference<AuditMessageQueue>();
+
     public void receiveStoreContext(@Observes StoreContext context) {
 
         StoreSession session = context.getStoreSession();
@@ -133,13 +138,15 @@ public class AuditObserver {
     public void receiveArchiveServiceStarted(
             @Observes @ArchiveServiceStarted StartStopReloadEvent event) {        
         AuditLogger logger = getLogger(event.getDevice());
-        sendAuditMessage (new StartStopAudit(true, logger, event.getSource()),logger);
+        writeAuditMessage (new StartStopAudit(true, logger, event.getSource()),logger);
     }
 
     public void receiveArchiveServiceStopped(
             @Observes @ArchiveServiceStopped StartStopReloadEvent event) {
         AuditLogger logger = getLogger(event.getDevice());
-        sendAuditMessage (new StartStopAudit(false, logger, event.getSource()), logger);
+        // send queued messages first, so the stop message is the last one
+        flushQueue();
+        writeAuditMessage (new StartStopAudit(false, logger, event.getSource()), logger);
     }
     
     public void receiveQuery(
@@ -239,8 +246,80 @@ public class AuditObserver {
         return device.getDeviceExtension(AuditLogger.class);
     }
 
+    /**
+     * Queues the message to be sent by the device executor, if an audit
+     * message queue is configured, otherwise sends it synchronously.
+     */
     private void sendAuditMessage(AuditMessage msg, AuditLogger logger) {
 
+        if (msg == null)
+            return;
+
+        if (logger == null || !logger.isInstalled())
+            return;
+
+        Device device = logger.getDevice();
+        AuditMessageQueue queue = getQueue(device);
+        if (queue != null)
+            queue.send(msg, logger, device.getExecutor());
+        else
+            writeAuditMessage(msg, logger);
+    }
+
+    /**
+     * Returns the queue of the configured capacity. A queue replaced on a
+     * change of the capacity is flushed by the replacing thread, without
+     * blocking other threads sending audit messages.
+     */
+    private AuditMessageQueue getQueue(Device device) {
+        ArchiveDeviceExtension arcDev =
+                device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int capacity = arcDev != null ? arcDev.getAuditQueueCapacity() : 0;
+        AuditMessageQueue queue = auditMessageQueue.get();
+        if (queue != null && queue.getCapacity() == capacity)
+            return queue;
+
+        AuditMessageQueue newQueue = capacity > 0 ? new AuditMessageQueue(capacity) : null;
+        if (!auditMessageQueue.compareAndSet(queue, newQueue))
+            return auditMessageQueue.get();
+
+        if (queue != null)
+            queue.flush();
+        return newQueue;
+    }
+
+    private void flushQueue() {
+        AuditMessageQueue queue = auditMessageQueue.get();
+        if (queue != null)
+            queue.flush();
+    }
+
+    /**
+     * @return number of audit messages waiting to be sent
+     */
+    public int getQueuedAuditMessages() {
+        AuditMessageQueue queue = auditMessageQueue.get();
+        return queue != null ? queue.getQueueSize() : 0;
+    }
+
+    /**
+     * @return number of audit messages sent from the queue
+     */
+    public long getSentAuditMessages() {
+        AuditMessageQueue queue = auditMessageQueue.get();
+        return queue != null ? queue.getSentMessages() : 0L;
+    }
+
+    /**
+     * @return average time in ms to send one audit message from the queue
+     */
+    public long getAverageAuditSendTime() {
+        AuditMessageQueue queue = auditMessageQueue.get();
+        return queue != null ? queue.getAverageSendTimeMillis() : 0L;
+    }
+
+    private void writeAuditMessage(AuditMessage msg, AuditLogger logger) {
+
         if (msg == null)
             return;
 
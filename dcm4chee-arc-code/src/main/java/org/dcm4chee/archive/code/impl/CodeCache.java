@@ -0,0 +1,116 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.code.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.dcm4chee.archive.entity.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of the primary keys of persisted codes, loaded at
+ * startup. Entities are not cached, so they are never shared between
+ * persistence contexts.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CodeCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodeCache.class);
+
+    @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
+    private EntityManager em;
+
+    private final ConcurrentHashMap<String, Long> codes =
+            new ConcurrentHashMap<String, Long>();
+
+    @PostConstruct
+    public void init() {
+        List<Code> list = em.createNamedQuery(Code.FIND_ALL, Code.class)
+                .getResultList();
+        for (Code code : list)
+            codes.put(keyOf(code), code.getPk());
+        LOG.info("Loaded {} codes into cache", list.size());
+    }
+
+    /**
+     * @return primary key of the code, or <code>null</code> if it is not cached
+     */
+    public Long get(org.dcm4che3.data.Code code) {
+        return codes.get(keyOf(code));
+    }
+
+    public void put(org.dcm4che3.data.Code code, Code entity) {
+        codes.put(keyOf(code), entity.getPk());
+    }
+
+    /**
+     * Persists the code in its own transaction, so it is visible to other
+     * transactions and cluster nodes as soon as this method returns.
+     * Fails if the code was created concurrently by another transaction.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Code create(org.dcm4che3.data.Code code) {
+        Code entity = new Code(code);
+        em.persist(entity);
+        em.flush();
+        return entity;
+    }
+
+    private static String keyOf(org.dcm4che3.data.Code code) {
+        String codingSchemeVersion = code.getCodingSchemeVersion();
+        return codingSchemeVersion == null
+                ? code.getCodeValue() + '\\' + code.getCodingSchemeDesignator()
+                : code.getCodeValue() + '\\' + code.getCodingSchemeDesignator()
+                        + '\\' + codingSchemeVersion;
+    }
+}
@@ -38,6 +38,8 @@
 
 package org.dcm4chee.archive.code.impl;
 
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -46,6 +48,8 @@ import javax.persistence.TypedQuery;
 
 import org.dcm4chee.archive.code.CodeService;
 import org.dcm4chee.archive.entity.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -54,21 +58,46 @@ import org.dcm4chee.archive.entity.Code;
 @Stateless
 public class CodeServiceEJB implements CodeService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CodeServiceEJB.class);
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
+    @EJB
+    private CodeCache cache;
+
     @Override
     public Code findOrCreate(org.dcm4che3.data.Code code) {
         if (code == null)
             return null;
+
+        Long pk = cache.get(code);
+        // load the entity into this persistence context by its primary key
+        // from the second level cache, instead of sharing one instance
+        // between transactions
+        if (pk != null) {
+            Code cached = em.find(Code.class, pk);
+            if (cached != null)
+                return cached;
+        }
+
+        Code entity;
         try {
-            return find(code);
+            entity = find(code);
         } catch (NoResultException e) {
-            if (!(code instanceof Code))
-                code = new Code(code);
-            em.persist(code);
-            return (Code) code;
+            try {
+                Code created = cache.create(code);
+                cache.put(code, created);
+                // created in its own transaction
+                return em.find(Code.class, created.getPk());
+            } catch (EJBException e2) {
+                // created concurrently by another transaction or cluster node
+                LOG.debug("Failed to create {} - try to find it again", code, e2);
+                entity = find(code);
+            }
         }
+        cache.put(code, entity);
+        return entity;
     }
 
     private Code find(org.dcm4che3.data.Code code) {
@@ -127,6 +127,12 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmSendPendingCMoveInterval", defaultValue = "0")
     private int sendPendingCMoveInterval;
 
+    @ConfigurableProperty(name = "dcmCMoveMaxAssociations",
+            description = "Max number of associations opened in parallel to the Move Destination by one C-MOVE. " +
+                    "The matches are distributed by series over the associations.",
+            defaultValue = "1")
+    private int cmoveMaxAssociations = 1;
+
     @ConfigurableProperty(name = "dcmStgCmtDelay", defaultValue = "0")
     private int storageCommitmentDelay;
 
@@ -169,6 +175,12 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "hl7PIXConsumerApplication")
     private String localPIXConsumerApplication;
 
+    @ConfigurableProperty(name = "dcmPIXCacheTimeout",
+            description = "Time in s for which the result of a PIX Query is cached. " +
+                    "If set to 0, each query is sent to the PIX Manager.",
+            defaultValue = "60")
+    private int pixCacheTimeout = 60;
+
     @ConfigurableProperty(name = "dcmQidoMaxNumberOfResults", defaultValue = "0")
     private int QIDOMaxNumberOfResults;
 
@@ -406,6 +418,14 @@ public class ArchiveAEExtension extends AEExtension {
         this.sendPendingCMoveInterval = sendPendingCMoveInterval;
     }
 
+    public int getCMoveMaxAssociations() {
+        return cmoveMaxAssociations;
+    }
+
+    public void setCMoveMaxAssociations(int cmoveMaxAssociations) {
+        this.cmoveMaxAssociations = cmoveMaxAssociations;
+    }
+
     public final int getStorageCommitmentDelay() {
         return storageCommitmentDelay;
     }
@@ -500,6 +520,14 @@ public class ArchiveAEExtension extends AEExtension {
         this.localPIXConsumerApplication = appName;
     }
 
+    public int getPIXCacheTimeout() {
+        return pixCacheTimeout;
+    }
+
+    public void setPIXCacheTimeout(int pixCacheTimeout) {
+        this.pixCacheTimeout = pixCacheTimeout;
+    }
+
     public int getQIDOMaxNumberOfResults() {
         return QIDOMaxNumberOfResults;
     }
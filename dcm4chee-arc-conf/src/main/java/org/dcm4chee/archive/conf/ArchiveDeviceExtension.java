@@ -97,6 +97,23 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     private int wadoAttributesStaleTimeout;
 
 
+    @ConfigurableProperty(name = "dcmWadoPixelDataIndexMaxEntries",
+            description = "Max number of instances for which the parsed header and the frame offsets of the Pixel Data " +
+                    "are kept in memory to serve WADO-RS frame requests without reparsing the file. If set to 0, disables caching.",
+            defaultValue = "1000")
+    private int wadoPixelDataIndexMaxEntries = 1000;
+
+    @ConfigurableProperty(name = "dcmWadoRenderedImageCacheDirectoryPath",
+            description = "Directory of the disk cache for images rendered by WADO-URI. " +
+                    "May contain system properties, e.g. ${jboss.server.data.dir}. If absent, disables caching.")
+    private String wadoRenderedImageCacheDirectoryPath;
+
+    @ConfigurableProperty(name = "dcmWadoRenderedImageCacheMaxSize",
+            description = "Max size in MB of the disk cache for images rendered by WADO-URI. " +
+                    "If exceeded, least recently used images are removed.",
+            defaultValue = "1024")
+    private int wadoRenderedImageCacheMaxSize = 1024;
+
     @ConfigurableProperty(name = "dcmHostnameAEResolution", defaultValue = "false")
     private boolean hostnameAEResolution;
 
@@ -109,6 +126,60 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmUpdateDbDelay", defaultValue = "1000")
     private int updateDbDelay = 1000;
 
+    @ConfigurableProperty(name = "dcmStoreGroupCommitMaxSize",
+            description = "Max number of received objects persisted in one DB transaction. If set to 0, group commit is disabled.",
+            defaultValue = "0")
+    private int storeGroupCommitMaxSize;
+
+    @ConfigurableProperty(name = "dcmStoreGroupCommitMaxDelay",
+            description = "Max delay in ms to wait for further received objects before a group commit is performed.",
+            defaultValue = "10")
+    private int storeGroupCommitMaxDelay = 10;
+
+    @ConfigurableProperty(name = "dcmFileSyncThreads",
+            description = "Number of threads which sync stored files to disk for storage systems with SyncPolicy AFTER_STORE_RSP",
+            defaultValue = "4")
+    private int fileSyncThreads = 4;
+
+    @ConfigurableProperty(name = "dcmFileSyncQueueCapacity",
+            description = "Max number of stored files waiting to be synced for storage systems with SyncPolicy AFTER_STORE_RSP. " +
+                    "If reached, further stores are blocked until pending files are synced.",
+            defaultValue = "10000")
+    private int fileSyncQueueCapacity = 10000;
+
+    @ConfigurableProperty(name = "dcmAuditQueueCapacity",
+            description = "Max number of audit messages waiting to be sent to the Audit Record Repository. " +
+                    "If reached, further audit messages are sent by the thread processing the audited request. " +
+                    "Queued audit messages are only kept in memory, so they are lost if the archive is " +
+                    "terminated before they are sent. " +
+                    "If set to 0, all audit messages are sent by the thread processing the audited request.",
+            defaultValue = "0")
+    private int auditQueueCapacity;
+
+    @ConfigurableProperty(name = "dcmStudyAccessTimeUpdateInterval",
+            description = "Min interval in s between updates of the access time of a study on a storage system group " +
+                    "on retrieve. If set to 0, the access time is updated by each retrieve.",
+            defaultValue = "60")
+    private int studyAccessTimeUpdateInterval = 60;
+
+    @ConfigurableProperty(name = "dcmStoreSCUReadAhead",
+            description = "Number of instances read and coerced in advance while the current instance is sent " +
+                    "by C-STORE sub-operations of retrieves. If set to 0, the instances are read one after another.",
+            defaultValue = "2")
+    private int storeSCUReadAhead = 2;
+
+    @ConfigurableProperty(name = "dcmStgCmtDigestCheckThreads",
+            description = "Max number of files per storage system whose digest is verified concurrently " +
+                    "on a Storage Commitment request",
+            defaultValue = "2")
+    private int stgCmtDigestCheckThreads = 2;
+
+    @ConfigurableProperty(name = "dcmStgCmtDigestCheckCacheTimeout",
+            description = "Time in s for which a successfully verified digest of a file is not verified again " +
+                    "on further Storage Commitment requests. If set to 0, the digest is verified on each request.",
+            defaultValue = "3600")
+    private int stgCmtDigestCheckCacheTimeout = 3600;
+
     @ConfigurableProperty(name = "dcmDBTimeZone")
     private TimeZone dataBaseTimeZone = TimeZone.getTimeZone("GMT+00:00");
 
@@ -156,12 +227,33 @@ public class ArchiveDeviceExtension extends DeviceExtension {
             defaultValue = "0")
     private int mppsEmulationPollInterval;
 
+    @ConfigurableProperty(name = "dcmStudyUpdateSessionFlushInterval",
+            description = "Interval in s in which instances received for a study update session with emulation delay " +
+                    "are written to the database. Sessions of rules with an emulation delay not greater than " +
+                    "the flush interval are updated for each received instance, as if set to 0. Collected " +
+                    "instances are only kept in memory until they are written, so they are lost if the archive " +
+                    "is terminated meanwhile. 0 = update the sessions for each received instance.",
+            defaultValue = "0")
+    private int studyUpdateSessionFlushInterval;
+
     @ConfigurableProperty(name = "dcmDeletionServicePollInterval", defaultValue = "0")
     private int deletionServicePollInterval;
 
     @ConfigurableProperty(name = "dcmArchivingSchedulerPollInterval", defaultValue = "0")
     private int archivingSchedulerPollInterval;
 
+    @ConfigurableProperty(name = "dcmArchivingSchedulerThreads",
+            description = "Max number of threads which schedule ready archiving tasks concurrently",
+            defaultValue = "4")
+    private int archivingSchedulerThreads = 4;
+
+    @ConfigurableProperty(name = "dcmArchivingTaskUpdateInterval",
+            description = "Interval in s in which the archiving time of the archiving tasks of a series is pushed " +
+                    "forward once for all further received instances of the series. If set to 0, the archiving " +
+                    "tasks are updated for each received instance.",
+            defaultValue = "10")
+    private int archivingTaskUpdateInterval = 10;
+
     @ConfigurableProperty(name = "dcmIocmConfig")
     private IOCMConfig iocmConfig;
 
@@ -211,6 +303,13 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmDataVolumePerDayAverageOnNDays", defaultValue = "1")
     private int dataVolumePerDayAverageOnNDays = 1;
 
+    @ConfigurableProperty(name = "dcmFreeSpaceSyncInterval",
+            description = "Interval in s after which the free space on the storage systems of a group is read again " +
+                    "from the file system by the deleter. In between, the free space is updated by the size of " +
+                    "stored and of deleted files.",
+            defaultValue = "300")
+    private int freeSpaceSyncInterval = 300;
+
     @LDAP(noContainerNode=true)
     @ConfigurableProperty(
             label = "MPPS emulation and Study update rules",
@@ -350,6 +449,30 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.deIdentifyLogs = deIdentifyLogs;
     }
     
+    public int getWadoPixelDataIndexMaxEntries() {
+        return wadoPixelDataIndexMaxEntries;
+    }
+
+    public void setWadoPixelDataIndexMaxEntries(int wadoPixelDataIndexMaxEntries) {
+        this.wadoPixelDataIndexMaxEntries = wadoPixelDataIndexMaxEntries;
+    }
+
+    public String getWadoRenderedImageCacheDirectoryPath() {
+        return wadoRenderedImageCacheDirectoryPath;
+    }
+
+    public void setWadoRenderedImageCacheDirectoryPath(String wadoRenderedImageCacheDirectoryPath) {
+        this.wadoRenderedImageCacheDirectoryPath = wadoRenderedImageCacheDirectoryPath;
+    }
+
+    public int getWadoRenderedImageCacheMaxSize() {
+        return wadoRenderedImageCacheMaxSize;
+    }
+
+    public void setWadoRenderedImageCacheMaxSize(int wadoRenderedImageCacheMaxSize) {
+        this.wadoRenderedImageCacheMaxSize = wadoRenderedImageCacheMaxSize;
+    }
+
     public int getUpdateDbRetries() {
         return updateDbRetries;
     }
@@ -366,6 +489,78 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.updateDbDelay = updateDbDelay;
     }
 
+    public int getStoreGroupCommitMaxSize() {
+        return storeGroupCommitMaxSize;
+    }
+
+    public void setStoreGroupCommitMaxSize(int storeGroupCommitMaxSize) {
+        this.storeGroupCommitMaxSize = storeGroupCommitMaxSize;
+    }
+
+    public int getStoreGroupCommitMaxDelay() {
+        return storeGroupCommitMaxDelay;
+    }
+
+    public void setStoreGroupCommitMaxDelay(int storeGroupCommitMaxDelay) {
+        this.storeGroupCommitMaxDelay = storeGroupCommitMaxDelay;
+    }
+
+    public int getFileSyncThreads() {
+        return fileSyncThreads;
+    }
+
+    public void setFileSyncThreads(int fileSyncThreads) {
+        this.fileSyncThreads = fileSyncThreads;
+    }
+
+    public int getFileSyncQueueCapacity() {
+        return fileSyncQueueCapacity;
+    }
+
+    public void setFileSyncQueueCapacity(int fileSyncQueueCapacity) {
+        this.fileSyncQueueCapacity = fileSyncQueueCapacity;
+    }
+
+    public int getAuditQueueCapacity() {
+        return auditQueueCapacity;
+    }
+
+    public void setAuditQueueCapacity(int auditQueueCapacity) {
+        this.auditQueueCapacity = auditQueueCapacity;
+    }
+
+    public int getStudyAccessTimeUpdateInterval() {
+        return studyAccessTimeUpdateInterval;
+    }
+
+    public void setStudyAccessTimeUpdateInterval(int studyAccessTimeUpdateInterval) {
+        this.studyAccessTimeUpdateInterval = studyAccessTimeUpdateInterval;
+    }
+
+    public int getStoreSCUReadAhead() {
+        return storeSCUReadAhead;
+    }
+
+    public void setStoreSCUReadAhead(int storeSCUReadAhead) {
+        this.storeSCUReadAhead = storeSCUReadAhead;
+    }
+
+    public int getStgCmtDigestCheckThreads() {
+        return stgCmtDigestCheckThreads;
+    }
+
+    public void setStgCmtDigestCheckThreads(int stgCmtDigestCheckThreads) {
+        this.stgCmtDigestCheckThreads = stgCmtDigestCheckThreads;
+    }
+
+    public int getStgCmtDigestCheckCacheTimeout() {
+        return stgCmtDigestCheckCacheTimeout;
+    }
+
+    public void setStgCmtDigestCheckCacheTimeout(int stgCmtDigestCheckCacheTimeout) {
+        this.stgCmtDigestCheckCacheTimeout = stgCmtDigestCheckCacheTimeout;
+    }
+
     public FuzzyStr getFuzzyStr() {
         if (fuzzyStr == null)
             if (fuzzyAlgorithmClass == null)
@@ -426,6 +621,14 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.mppsEmulationPollInterval = mppsEmulationPollInterval;
     }
 
+    public int getStudyUpdateSessionFlushInterval() {
+        return studyUpdateSessionFlushInterval;
+    }
+
+    public void setStudyUpdateSessionFlushInterval(int studyUpdateSessionFlushInterval) {
+        this.studyUpdateSessionFlushInterval = studyUpdateSessionFlushInterval;
+    }
+
     public int getArchivingSchedulerPollInterval() {
         return archivingSchedulerPollInterval;
     }
@@ -434,6 +637,22 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.archivingSchedulerPollInterval = archivingPollInterval;
     }
 
+    public int getArchivingSchedulerThreads() {
+        return archivingSchedulerThreads;
+    }
+
+    public void setArchivingSchedulerThreads(int archivingSchedulerThreads) {
+        this.archivingSchedulerThreads = archivingSchedulerThreads;
+    }
+
+    public int getArchivingTaskUpdateInterval() {
+        return archivingTaskUpdateInterval;
+    }
+
+    public void setArchivingTaskUpdateInterval(int archivingTaskUpdateInterval) {
+        this.archivingTaskUpdateInterval = archivingTaskUpdateInterval;
+    }
+
     public int getSyncLocationStatusPollInterval() {
         return syncLocationStatusPollInterval;
     }
@@ -736,6 +955,14 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.dataVolumePerDayCalculationRange = dataVolumePerDayCalculationRange;
     }
 
+    public int getFreeSpaceSyncInterval() {
+        return freeSpaceSyncInterval;
+    }
+
+    public void setFreeSpaceSyncInterval(int freeSpaceSyncInterval) {
+        this.freeSpaceSyncInterval = freeSpaceSyncInterval;
+    }
+
 	public Collection<ApplicationEntity> getIgnoreSeriesStudyMissmatchErrorsAETs() {
 		return ignoreSeriesStudyMissmatchErrorsAETs;
 	}
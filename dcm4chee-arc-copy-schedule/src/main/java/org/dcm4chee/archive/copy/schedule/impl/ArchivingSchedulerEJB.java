@@ -47,14 +47,13 @@ import java.util.List;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TemporalType;
 
 import org.dcm4che3.conf.api.DicomConfiguration;
-import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Code;
-import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.code.CodeService;
@@ -66,7 +65,6 @@ import org.dcm4chee.archive.entity.Series;
 import org.dcm4chee.archive.hsm.LocationCopyContext;
 import org.dcm4chee.archive.hsm.LocationCopyService;
 import org.dcm4chee.archive.processing.ActiveProcessingService;
-import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.remember.StoreAndRememberContext;
 import org.dcm4chee.archive.store.remember.StoreAndRememberService;
 import org.slf4j.Logger;
@@ -99,11 +97,8 @@ public class ArchivingSchedulerEJB {
     @Inject
     private DicomConfiguration conf;
 
-    public void onStoreInstance(StoreContext storeContext, ArchivingRule archivingRule) {
-        Attributes attrs = storeContext.getAttributes();
-        String seriesInstanceUID = attrs.getString(Tag.SeriesInstanceUID);
-        Date archivingTime = new Date(System.currentTimeMillis()
-                + archivingRule.getDelayAfterInstanceStored() * 1000L);
+    public void scheduleArchiving(String seriesInstanceUID, String sourceStorageGroupID,
+            ArchivingRule archivingRule, Date archivingTime) {
         List<ArchivingTask> alreadyScheduledTasks = em
                 .createNamedQuery(ArchivingTask.FIND_BY_SERIES_INSTANCE_UID, ArchivingTask.class)
                 .setParameter(1, seriesInstanceUID).getResultList();
@@ -121,7 +116,7 @@ public class ArchivingSchedulerEJB {
             flagOrUnflagSeriesAsActiveProcess(seriesInstanceUID, ActiveService.LOCAL_ARCHIVING, true);
             for (String targetGroupID : storageGroupTargets) {
                 createAndPersistStorageGroupArchivingTask(seriesInstanceUID, archivingTime,
-                        storeContext.getFileRef().getStorageSystemGroupID(),
+                        sourceStorageGroupID,
                         archivingRule.getDelayReasonCode(), targetGroupID);
             }
         }
@@ -139,7 +134,7 @@ public class ArchivingSchedulerEJB {
             flagOrUnflagSeriesAsActiveProcess(seriesInstanceUID, ActiveService.STORE_REMEMBER_ARCHIVING, true);
             for (String extDeviceTarget : extDeviceTargets) {
                 createAndPersistExtDeviceArchivingTask(seriesInstanceUID, archivingTime,
-                        storeContext.getFileRef().getStorageSystemGroupID(),
+                        sourceStorageGroupID,
                         archivingRule.getDelayReasonCode(), extDeviceTarget);
             }
         }
@@ -205,16 +200,42 @@ public class ArchivingSchedulerEJB {
     }
 
     public ArchivingTask scheduleNextArchivingTask() throws IOException {
-        List<ArchivingTask> results = em
-                .createNamedQuery(ArchivingTask.FIND_READY_TO_ARCHIVE_BY_TIME, ArchivingTask.class)
-                .setParameter(1, new Date(), TemporalType.TIMESTAMP)
-                .setMaxResults(1).getResultList();
-        if (results.isEmpty()) {
+        List<Long> pks = findReadyArchivingTaskPks(1);
+        if (pks.isEmpty()) {
             LOG.debug("No archiving tasks found to schedule");
             return null;
         }
 
-        ArchivingTask task = results.get(0);
+        return scheduleArchivingTask(pks.get(0));
+    }
+
+    public List<Long> findReadyArchivingTaskPks(int maxResults) {
+        return em.createNamedQuery(ArchivingTask.FIND_PK_READY_TO_ARCHIVE_BY_TIME, Long.class)
+                .setParameter(1, new Date(), TemporalType.TIMESTAMP)
+                .setMaxResults(maxResults).getResultList();
+    }
+
+    /**
+     * Schedules the archiving task with the specified pk, if it is still
+     * ready to archive. The task is locked for the duration of the
+     * transaction, so concurrent callers - also on other nodes of a cluster -
+     * will not find it anymore after it was scheduled and removed.
+     *
+     * @return the scheduled task or {@code null}, if the task was already
+     *         scheduled by another caller or is not ready anymore
+     */
+    public ArchivingTask scheduleArchivingTask(long pk) throws IOException {
+        ArchivingTask task = em.find(ArchivingTask.class, pk, LockModeType.PESSIMISTIC_WRITE);
+        if (task == null) {
+            LOG.debug("ArchivingTask[pk={}] already scheduled", pk);
+            return null;
+        }
+        if (task.getDelayReasonCode() != null
+                || task.getArchivingTime().after(new Date())) {
+            LOG.debug("{} not ready to archive anymore", task);
+            return null;
+        }
+
         LOG.info("Scheduling {}", task);
         if (task.getTargetStorageSystemGroupID() != null) {
             scheduleCopyToHsm(task);
@@ -39,14 +39,24 @@
 package org.dcm4chee.archive.copy.schedule.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.ArchiveServiceReloaded;
 import org.dcm4chee.archive.ArchiveServiceStarted;
@@ -56,6 +66,7 @@ import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.ArchivingRule;
 import org.dcm4chee.archive.entity.ArchivingTask;
+import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreSession;
@@ -71,6 +82,8 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
 
     private static final Logger LOG = LoggerFactory.getLogger(ArchivingSchedulerImpl.class);
 
+    private static final int SCHEDULE_BATCH_SIZE = 100;
+
     @Inject
     private Device device;
 
@@ -80,6 +93,11 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
     private int currentPollInterval;
     private ScheduledFuture<?> polling;
 
+    private final ConcurrentHashMap<String, ScheduledSeries> scheduledSeries =
+            new ConcurrentHashMap<String, ScheduledSeries>();
+    private int currentUpdateInterval;
+    private volatile ScheduledFuture<?> updating;
+
     public void onStoreInstance(@Observes StoreContext storeContext) {
         switch (storeContext.getStoreAction()) {
         case REPLACE:
@@ -98,23 +116,108 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
                 storeSession.getRemoteAET(),
                 storeContext.getAttributes());
 
-        for (ArchivingRule rule : archivingRules)
-            ejb.onStoreInstance(storeContext, rule);
+        String seriesInstanceUID = storeContext.getAttributes().getString(Tag.SeriesInstanceUID);
+        Location fileRef = storeContext.getFileRef();
+        String sourceStorageGroupID = fileRef != null ? fileRef.getStorageSystemGroupID() : null;
+        for (ArchivingRule rule : archivingRules) {
+            Date archivingTime = new Date(System.currentTimeMillis()
+                    + rule.getDelayAfterInstanceStored() * 1000L);
+            if (updating == null) {
+                ejb.scheduleArchiving(seriesInstanceUID, sourceStorageGroupID, rule, archivingTime);
+                continue;
+            }
+            String key = seriesInstanceUID + '\\' + rule.getCommonName();
+            ScheduledSeries scheduled = scheduledSeries.get(key);
+            if (scheduled == null || !scheduled.postpone(archivingTime)) {
+                ejb.scheduleArchiving(seriesInstanceUID, sourceStorageGroupID, rule, archivingTime);
+                scheduledSeries.put(key, new ScheduledSeries(
+                        seriesInstanceUID, sourceStorageGroupID, rule));
+            }
+        }
+    }
+
+    /**
+     * Persists the archiving time of series, which received further instances
+     * since the last update, and forgets about series, which did not.
+     */
+    private void updateScheduledSeries() {
+        for (Map.Entry<String, ScheduledSeries> entry : scheduledSeries.entrySet()) {
+            ScheduledSeries scheduled = entry.getValue();
+            Date archivingTime = scheduled.takeArchivingTime();
+            if (archivingTime == null) {
+                scheduledSeries.remove(entry.getKey(), scheduled);
+                continue;
+            }
+            try {
+                ejb.scheduleArchiving(scheduled.seriesInstanceUID,
+                        scheduled.sourceStorageGroupID, scheduled.rule, archivingTime);
+            } catch (Exception e) {
+                LOG.error("Failed to update archiving tasks of series {}",
+                        scheduled.seriesInstanceUID, e);
+            }
+        }
     }
 
+    /**
+     * Fetches the ready archiving tasks in batches and schedules each batch
+     * by up to {@link ArchiveDeviceExtension#getArchivingSchedulerThreads()}
+     * threads. Tasks which failed to be scheduled are not retried before the
+     * next invocation.
+     */
     @Override
     public int scheduleReadyArchivingTasks() {
+        updateScheduledSeries();
         int count = 0;
-        for (;;) {
+        Set<Long> failed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        List<Long> pks;
+        int maxResults;
+        do {
+            maxResults = SCHEDULE_BATCH_SIZE + failed.size();
+            pks = ejb.findReadyArchivingTaskPks(maxResults);
+            int fetched = pks.size();
+            pks.removeAll(failed);
+            count += scheduleArchivingTasks(pks, failed);
+            if (fetched < maxResults)
+                break;
+        } while (!pks.isEmpty());
+        return count;
+    }
+
+    private int scheduleArchivingTasks(List<Long> pks, final Set<Long> failed) {
+        final ConcurrentLinkedQueue<Long> queue = new ConcurrentLinkedQueue<Long>(pks);
+        final AtomicInteger count = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                Long pk;
+                while ((pk = queue.poll()) != null) {
+                    try {
+                        if (ejb.scheduleArchivingTask(pk) != null)
+                            count.incrementAndGet();
+                    } catch (Exception e) {
+                        LOG.error("Failed to schedule archiving task[pk={}]", pk, e);
+                        failed.add(pk);
+                    }
+                }
+            }
+        };
+        int threads = Math.min(pks.size(), device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getArchivingSchedulerThreads());
+        List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>(threads);
+        for (int i = 1; i < threads; i++) {
+            FutureTask<Void> task = new FutureTask<Void>(worker, null);
+            device.getExecutor().execute(task);
+            workers.add(task);
+        }
+        worker.run();
+        for (FutureTask<Void> task : workers) {
             try {
-                if (scheduleNextArchivingTask() == null)
-                    break;
-                count++;
-            } catch (IOException e) {
-                LOG.error("Failed to schedule archiving task", e);
+                task.get();
+            } catch (Exception e) {
+                LOG.error("Archiving scheduler worker failed", e);
             }
         }
-        return count;
+        return count.get();
     }
 
     @Override
@@ -124,12 +227,14 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
 
     public void onArchiveServiceStarted(
             @Observes @ArchiveServiceStarted StartStopReloadEvent start) {
+        startUpdating(updateInterval());
         startPolling(pollInterval());
     }
 
     public void onArchiveServiceStopped(
             @Observes @ArchiveServiceStopped StartStopReloadEvent stop) {
         stopPolling();
+        stopUpdating();
     }
 
     public void onArchiveSeriviceReloaded(
@@ -139,6 +244,11 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
             stopPolling();
             startPolling(pollInterval);
         }
+        int updateInterval = updateInterval();
+        if (currentUpdateInterval != updateInterval) {
+            stopUpdating();
+            startUpdating(updateInterval);
+        }
     }
 
     private int pollInterval() {
@@ -146,6 +256,35 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
                 .getArchivingSchedulerPollInterval();
     }
 
+    private int updateInterval() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getArchivingTaskUpdateInterval();
+    }
+
+    private synchronized void startUpdating(int updateInterval) {
+        if (updating == null && updateInterval > 0) {
+            updating = device.scheduleWithFixedDelay(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            updateScheduledSeries();
+                        }
+                    },
+                    updateInterval, updateInterval, TimeUnit.SECONDS);
+            currentUpdateInterval = updateInterval;
+        }
+    }
+
+    private synchronized void stopUpdating() {
+        if (updating != null) {
+            updating.cancel(false);
+            updating = null;
+            currentUpdateInterval = 0;
+            updateScheduledSeries();
+            scheduledSeries.clear();
+        }
+    }
+
     private synchronized void startPolling(int pollInterval) {
         if (polling == null && pollInterval > 0) {
             polling = device.scheduleWithFixedDelay(
@@ -169,4 +308,33 @@ public class ArchivingSchedulerImpl implements ArchivingScheduler {
             LOG.info("Arching Scheduler: stop polling for scheduled Archiving tasks");
         }
     }
+
+    private static class ScheduledSeries {
+        final String seriesInstanceUID;
+        final String sourceStorageGroupID;
+        final ArchivingRule rule;
+        private Date archivingTime;
+        private boolean expired;
+
+        ScheduledSeries(String seriesInstanceUID, String sourceStorageGroupID,
+                ArchivingRule rule) {
+            this.seriesInstanceUID = seriesInstanceUID;
+            this.sourceStorageGroupID = sourceStorageGroupID;
+            this.rule = rule;
+        }
+
+        synchronized boolean postpone(Date archivingTime) {
+            if (expired)
+                return false;
+            this.archivingTime = archivingTime;
+            return true;
+        }
+
+        synchronized Date takeArchivingTime() {
+            Date archivingTime = this.archivingTime;
+            this.archivingTime = null;
+            expired = archivingTime == null;
+            return archivingTime;
+        }
+    }
 }
@@ -0,0 +1,267 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.copy.schedule.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.ArchivingRule;
+import org.dcm4chee.archive.conf.ArchivingRules;
+import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreSession;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests the coalescing of archiving time updates of series by
+ * {@link ArchivingSchedulerImpl} against a mocked {@link ArchivingSchedulerEJB}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ArchivingSchedulerImplTest {
+
+    private static final String SERIES_1 = "1.2.3.1";
+    private static final String SERIES_2 = "1.2.3.2";
+
+    @Spy
+    private Device device = new Device("dcm4chee-arc");
+
+    @Mock
+    private ArchivingSchedulerEJB ejb;
+
+    @Mock
+    private StoreSession storeSession;
+
+    @Mock
+    private ScheduledFuture<?> future;
+
+    @InjectMocks
+    private ArchivingSchedulerImpl scheduler;
+
+    private final ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+
+    private final ArchiveAEExtension arcAE = new ArchiveAEExtension();
+
+    private final ArchivingRule rule1 = archivingRule("rule1", 60);
+
+    private final ArchivingRule rule2 = archivingRule("rule2", 3600);
+
+    private final ArgumentCaptor<Runnable> update =
+            ArgumentCaptor.forClass(Runnable.class);
+
+    @Before
+    public void before() {
+        arcDev.setArchivingSchedulerPollInterval(0);
+        arcDev.setArchivingTaskUpdateInterval(10);
+        device.addDeviceExtension(arcDev);
+        ArchivingRules rules = new ArchivingRules();
+        rules.add(rule1);
+        arcAE.setArchivingRules(rules);
+        when(storeSession.getArchiveAEExtension()).thenReturn(arcAE);
+        doReturn(future).when(device).scheduleWithFixedDelay(
+                update.capture(), anyLong(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testScheduleEachInstanceIfNotUpdating() {
+        arcDev.setArchivingTaskUpdateInterval(0);
+        scheduler.onArchiveServiceStarted(null);
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+
+        verify(ejb, times(2)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+    }
+
+    @Test
+    public void testIgnoreNotStoredInstances() {
+        scheduler.onArchiveServiceStarted(null);
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.IGNORE));
+
+        verifyZeroInteractions(ejb);
+    }
+
+    @Test
+    public void testCoalesceArchivingTimeUpdatesOfSeries() throws Exception {
+        scheduler.onArchiveServiceStarted(null);
+        ArgumentCaptor<Date> archivingTime = ArgumentCaptor.forClass(Date.class);
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        Thread.sleep(10);
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        verify(ejb, times(1)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+
+        update.getValue().run();
+
+        verify(ejb, times(2)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), archivingTime.capture());
+        List<Date> archivingTimes = archivingTime.getAllValues();
+        Assert.assertTrue(archivingTimes.get(1).after(archivingTimes.get(0)));
+    }
+
+    @Test
+    public void testForgetSeriesWithoutFurtherInstances() {
+        scheduler.onArchiveServiceStarted(null);
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        update.getValue().run();
+        update.getValue().run();
+        verify(ejb, times(1)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        verify(ejb, times(2)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+    }
+
+    @Test
+    public void testCoalesceBySeriesAndArchivingRule() {
+        arcAE.getArchivingRules().add(rule2);
+        scheduler.onArchiveServiceStarted(null);
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_2, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_2, StoreAction.STORE));
+
+        verify(ejb).scheduleArchiving(eq(SERIES_1), anyString(), eq(rule1), any(Date.class));
+        verify(ejb).scheduleArchiving(eq(SERIES_1), anyString(), eq(rule2), any(Date.class));
+        verify(ejb).scheduleArchiving(eq(SERIES_2), anyString(), eq(rule1), any(Date.class));
+        verify(ejb).scheduleArchiving(eq(SERIES_2), anyString(), eq(rule2), any(Date.class));
+    }
+
+    @Test
+    public void testFailedUpdateDoesNotStopUpdateOfOtherSeries() {
+        scheduler.onArchiveServiceStarted(null);
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_2, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_2, StoreAction.STORE));
+        doThrow(new RuntimeException("Database unavailable"))
+                .when(ejb).scheduleArchiving(eq(SERIES_1), anyString(),
+                        eq(rule1), any(Date.class));
+
+        update.getValue().run();
+
+        verify(ejb, times(2)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+        verify(ejb, times(2)).scheduleArchiving(eq(SERIES_2), anyString(),
+                eq(rule1), any(Date.class));
+    }
+
+    @Test
+    public void testStopUpdatingPersistsPostponedArchivingTimes() {
+        scheduler.onArchiveServiceStarted(null);
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+
+        scheduler.onArchiveServiceStopped(null);
+
+        verify(future).cancel(false);
+        verify(ejb, times(2)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+
+        scheduler.onStoreInstance(storeContext(SERIES_1, StoreAction.STORE));
+        verify(ejb, times(3)).scheduleArchiving(eq(SERIES_1), anyString(),
+                eq(rule1), any(Date.class));
+        verify(device, times(1)).scheduleWithFixedDelay(
+                any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testNoUpdateIfNoFurtherInstances() {
+        scheduler.onArchiveServiceStarted(null);
+        update.getValue().run();
+        scheduler.onArchiveServiceStopped(null);
+
+        verify(ejb, never()).scheduleArchiving(anyString(), anyString(),
+                any(ArchivingRule.class), any(Date.class));
+    }
+
+    private StoreContext storeContext(String seriesInstanceUID,
+            StoreAction storeAction) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, seriesInstanceUID);
+        StoreContext storeContext = mock(StoreContext.class);
+        when(storeContext.getStoreAction()).thenReturn(storeAction);
+        when(storeContext.getStoreSession()).thenReturn(storeSession);
+        when(storeContext.getAttributes()).thenReturn(attrs);
+        return storeContext;
+    }
+
+    private static ArchivingRule archivingRule(String commonName,
+            int delayAfterInstanceStored) {
+        ArchivingRule rule = new ArchivingRule();
+        rule.setCommonName(commonName);
+        rule.setDelayAfterInstanceStored(delayAfterInstanceStored);
+        return rule;
+    }
+}
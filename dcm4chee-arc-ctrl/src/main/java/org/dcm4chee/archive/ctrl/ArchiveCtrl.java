@@ -56,8 +56,11 @@ import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.ArchiveService;
+import org.dcm4chee.archive.audit.AuditObserver;
+import org.dcm4chee.archive.query.QueryService;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
+import org.dcm4chee.archive.store.impl.FileSyncQueue;
 import org.dcm4chee.storage.conf.StorageDeviceExtension;
 import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
@@ -77,6 +80,15 @@ public class ArchiveCtrl {
     @Inject
     private ArchiveService service;
 
+    @Inject
+    private QueryService queryService;
+
+    @Inject
+    private AuditObserver auditObserver;
+
+    @Inject
+    private FileSyncQueue fileSyncQueue;
+
     @Context
     private HttpServletRequest request;
 
@@ -112,6 +124,33 @@ public class ArchiveCtrl {
         return Response.status(Status.OK).build();
     }
 
+    @POST
+    @Path("/migrate/numberOfFrames")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String updateNumberOfFrames() {
+        return String.valueOf(queryService.updateNumberOfFrames());
+    }
+
+    @GET
+    @Path("/audit/queue")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String auditQueue() {
+        return "queued=" + auditObserver.getQueuedAuditMessages()
+                + "\nsent=" + auditObserver.getSentAuditMessages()
+                + "\naverageSendTime=" + auditObserver.getAverageAuditSendTime() + "ms\n";
+    }
+
+    @GET
+    @Path("/filesync/queue")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String fileSyncQueue() {
+        return "queued=" + fileSyncQueue.getQueuedFiles()
+                + "\nsyncs=" + fileSyncQueue.getSyncCount()
+                + "\nsynced=" + fileSyncQueue.getSyncedFiles()
+                + "\naverageSyncTime=" + fileSyncQueue.getAverageSyncTime() + "ms"
+                + "\nmaxQueueTime=" + fileSyncQueue.getMaxQueueTime() + "ms\n";
+    }
+
     @GET
     @Path("/whoami")
     @Produces(MediaType.TEXT_HTML)
@@ -67,6 +67,11 @@ import javax.persistence.TemporalType;
 @NamedQuery(
         name=ArchivingTask.FIND_READY_TO_ARCHIVE_BY_TIME,
         query="SELECT a FROM ArchivingTask a "
+            + "WHERE a.archivingTime <= ?1 AND a.delayReasonCode IS NULL "
+            + "ORDER BY a.archivingTime"),
+@NamedQuery(
+        name=ArchivingTask.FIND_PK_READY_TO_ARCHIVE_BY_TIME,
+        query="SELECT a.pk FROM ArchivingTask a "
             + "WHERE a.archivingTime <= ?1 AND a.delayReasonCode IS NULL "
             + "ORDER BY a.archivingTime")
     })
@@ -82,6 +87,9 @@ public class ArchivingTask implements Serializable {
     public static final String FIND_READY_TO_ARCHIVE_BY_TIME =
             "ArchivingTask.findReadyToArchiveByTime";
 
+    public static final String FIND_PK_READY_TO_ARCHIVE_BY_TIME =
+            "ArchivingTask.findPkReadyToArchiveByTime";
+
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
     @Column(name = "pk")
@@ -39,6 +39,7 @@
 package org.dcm4chee.archive.entity;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 import javax.persistence.Access;
 import javax.persistence.AccessType;
@@ -52,6 +53,9 @@ import javax.persistence.Table;
 import javax.persistence.Transient;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.VR;
 
 /**
  * @author Umberto Cappellini <umberto.cappellini@agfa.com>
@@ -68,8 +72,23 @@ public class AttributesBlob implements Serializable {
     private long pk;
     
     @Transient
-    private Attributes cachedAttributes; 
-    
+    private Attributes cachedAttributes;
+
+    /**
+     * Encoded attributes as read from or last written to the database.
+     */
+    @Transient
+    private byte[] encodedAttributes;
+
+    /**
+     * References to the values of {@link #cachedAttributes} at the time they
+     * were encoded to or decoded from {@link #encodedAttributes}, to detect
+     * in place modifications without re-encoding the attributes. Not
+     * serialized, serialized entities are re-encoded on the next flush.
+     */
+    @Transient
+    private transient Values encodedValues;
+
     public long getPk() {
         return pk;
     }
@@ -77,37 +96,150 @@ public class AttributesBlob implements Serializable {
     public AttributesBlob(Attributes attrs) {
         setAttributes(attrs);
     }
-    
+
     public AttributesBlob() {
-        setAttributes(new Attributes());
     }
-    
+
     public boolean equals(AttributesBlob other) {
         return other != null && other.pk == pk;
     }
-    
+
     @Override
     public String toString() {
         return "BLOB[pk=" + pk + "]";
     }
-    
+
+    /**
+     * Returns the attributes, decoding them from the database content on
+     * first access. Callers may modify the returned attributes in place,
+     * such changes are detected and encoded on the next flush.
+     */
     public Attributes getAttributes() throws BlobCorruptedException {
+        if (cachedAttributes == null) {
+            if (encodedAttributes != null) {
+                cachedAttributes = Utils.decodeAttributes(encodedAttributes);
+                encodedValues = Values.of(cachedAttributes);
+            } else {
+                cachedAttributes = new Attributes();
+            }
+        }
         return cachedAttributes;
     }
 
     public void setAttributes(Attributes attrs) {
         cachedAttributes = attrs;
+        encodedAttributes = null;
     }
 
+    /**
+     * Returns the encoded attributes. Only encodes the attributes if they
+     * were not yet encoded or were changed since, so entities pass Hibernate
+     * dirty checks on each flush without being re-encoded.
+     */
     @Basic(optional = false)
     @Column(name = "attrs")
     @Access(AccessType.PROPERTY)
     public byte[] getEncodedAttributes() {
-        return Utils.encodeAttributes(cachedAttributes);
+        if (encodedAttributes == null) {
+            if (cachedAttributes == null)
+                cachedAttributes = new Attributes();
+            encodedValues = Values.of(cachedAttributes);
+            encodedAttributes = Utils.encodeAttributes(cachedAttributes);
+        } else if (cachedAttributes != null) {
+            Values values = Values.of(cachedAttributes);
+            if (encodedValues == null || encodedValues.isModified(values))
+                encodedAttributes = Utils.encodeAttributes(cachedAttributes);
+            encodedValues = values;
+        }
+        return encodedAttributes;
     }
-    
+
+    /**
+     * Keeps the encoded attributes; decoding is deferred until
+     * {@link #getAttributes()} is called.
+     */
     public void setEncodedAttributes(byte[] atts) {
-        cachedAttributes = Utils.decodeAttributes(atts);
+        encodedAttributes = atts;
+        cachedAttributes = null;
     }
-    
+
+    /**
+     * References to the values of attributes including nested items.
+     * Modifications of the attributes replace the values, so they are
+     * detected by comparing the references, without hashing or decoding all
+     * values. Only string values, which were decoded and replaced on first
+     * access, are decoded again from the previous bytes for comparison.
+     */
+    static final class Values implements Attributes.Visitor {
+
+        private Attributes[] items = new Attributes[16];
+        private int[] tags = new int[16];
+        private VR[] vrs = new VR[16];
+        private Object[] values = new Object[16];
+        private int[] sizes = new int[16];
+        private int size;
+
+        static Values of(Attributes attrs) {
+            Values values = new Values();
+            try {
+                attrs.accept(values, true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return values;
+        }
+
+        @Override
+        public boolean visit(Attributes attrs, int tag, VR vr, Object value) {
+            if (size == tags.length)
+                grow();
+            items[size] = attrs;
+            tags[size] = tag;
+            vrs[size] = vr;
+            values[size] = value;
+            // items or fragments may be added to or removed from the value
+            sizes[size] = value instanceof Sequence ? ((Sequence) value).size()
+                    : value instanceof Fragments ? ((Fragments) value).size()
+                    : -1;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            int n = size << 1;
+            items = Arrays.copyOf(items, n);
+            tags = Arrays.copyOf(tags, n);
+            vrs = Arrays.copyOf(vrs, n);
+            values = Arrays.copyOf(values, n);
+            sizes = Arrays.copyOf(sizes, n);
+        }
+
+        boolean isModified(Values other) {
+            if (size != other.size)
+                return true;
+            for (int i = 0; i < size; i++) {
+                if (items[i] != other.items[i]
+                        || tags[i] != other.tags[i]
+                        || vrs[i] != other.vrs[i]
+                        || sizes[i] != other.sizes[i])
+                    return true;
+                if (values[i] != other.values[i] && !isDecoded(i, other.values[i]))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean isDecoded(int i, Object decoded) {
+            if (!(values[i] instanceof byte[]) || !vrs[i].isStringType())
+                return false;
+
+            Object expected = vrs[i].toStrings(values[i], items[i].bigEndian(),
+                    items[i].getSpecificCharacterSet());
+            return expected instanceof String[]
+                    ? decoded instanceof String[]
+                            && Arrays.equals((String[]) expected, (String[]) decoded)
+                    : expected.equals(decoded);
+        }
+    }
+
 }
@@ -60,9 +60,13 @@ import org.dcm4che3.data.Attributes;
     query="SELECT c FROM Code c " +
           "WHERE c.codeValue = ?1 " +
             "AND c.codingSchemeDesignator = ?2 " +
-            "AND c.codingSchemeVersion = ?3")
+            "AND c.codingSchemeVersion = ?3"),
+@NamedQuery(
+    name="Code.findAll",
+    query="SELECT c FROM Code c")
 })
 @Entity
+@Cacheable
 @Table(name = "code", uniqueConstraints =
         @UniqueConstraint(columnNames = {"code_value","code_designator","code_version"})
 )
@@ -74,6 +78,7 @@ public class Code extends org.dcm4che3.data.Code {
         "Code.findByCodeValueWithoutSchemeVersion";
     public static final String FIND_BY_CODE_VALUE_WITH_SCHEME_VERSION =
         "Code.findByCodeValueWithSchemeVersion";
+    public static final String FIND_ALL = "Code.findAll";
 
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
@@ -70,7 +70,11 @@ import org.dcm4chee.storage.conf.Availability;
     @NamedQuery(
             name=ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_IUID_AVAILABILITY,
             query = "Select e from ExternalRetrieveLocation e"
-                    + " where e.instance.sopInstanceUID = ?1 and e.availability = ?2")
+                    + " where e.instance.sopInstanceUID = ?1 and e.availability = ?2"),
+    @NamedQuery(
+            name=ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_INSTANCE_PKS,
+            query = "Select e.instance.pk, e.retrieveDeviceName, e.availability"
+                    + " from ExternalRetrieveLocation e where e.instance.pk in (?1)")
 })
 @Entity
 @Table(name="ext_retrieve_location")
@@ -83,6 +87,8 @@ public class ExternalRetrieveLocation implements Serializable {
     = "ExternalRetrieveLocation.findExtLocationsByIUID";
     public static final String FIND_EXT_LOCATIONS_BY_IUID_AVAILABILITY
      = "ExternalRetrieveLocation.findExtLocationsByIUIDAvailability";
+    public static final String FIND_EXT_LOCATIONS_BY_INSTANCE_PKS
+     = "ExternalRetrieveLocation.findExtLocationsByInstancePks";
     
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
@@ -92,7 +92,12 @@ import java.util.GregorianCalendar;
 @NamedQuery(
     name=Instance.FIND_BY_SERIES_INSTANCE_UID,
     query="SELECT i FROM Instance i "
-            + "WHERE i.series.seriesInstanceUID = ?1")})
+            + "WHERE i.series.seriesInstanceUID = ?1"),
+@NamedQuery(
+    name=Instance.UPDATE_NUMBER_OF_FRAMES,
+    query="UPDATE Instance i "
+            + "SET i.numberOfFrames = ?1 "
+            + "WHERE i.pk IN (?2)")})
 @Entity
 @Table(name = "instance")
 public class Instance implements Serializable {
@@ -105,6 +110,8 @@ public class Instance implements Serializable {
             "Instance.findBySOPInstanceUIDMany.eager";
     public static final String FIND_BY_SERIES_INSTANCE_UID =
             "Instance.findBySeriesInstanceUID";
+    public static final String UPDATE_NUMBER_OF_FRAMES =
+            "Instance.updateNumberOfFrames";
 
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
@@ -160,6 +167,14 @@ public class Instance implements Serializable {
     @Column(name = "inst_custom3")
     private String instanceCustomAttribute3;
 
+    /**
+     * Value of Number of Frames (0028,0008), 1 for single frame objects.
+     * Kept as column to calculate the number of visible images of studies
+     * and series without decoding the instance attributes.
+     */
+    @Column(name = "num_frames")
+    private Integer numberOfFrames;
+
     @Column(name = "retrieve_aets")
     private String retrieveAETs;
 
@@ -299,6 +314,18 @@ public class Instance implements Serializable {
         return instanceCustomAttribute3;
     }
 
+    /**
+     * @return number of frames or <code>null</code>, if not yet initialized
+     * for instances stored before the column was introduced
+     */
+    public Integer getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    public void setNumberOfFrames(Integer numberOfFrames) {
+        this.numberOfFrames = numberOfFrames;
+    }
+
     public String[] getRetrieveAETs() {
         return StringUtils.split(retrieveAETs, '\\');
     }
@@ -432,6 +459,7 @@ public class Instance implements Serializable {
         sopInstanceUID = attrs.getString(Tag.SOPInstanceUID);
         sopClassUID = attrs.getString(Tag.SOPClassUID);
         instanceNumber = attrs.getString(Tag.InstanceNumber, nullValue);
+        numberOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
         Date dt = attrs.getDate(Tag.ContentDateAndTime, new DatePrecision(Calendar.SECOND));
         if (dt != null) {
             Calendar adjustedDateTimeCal = new GregorianCalendar();
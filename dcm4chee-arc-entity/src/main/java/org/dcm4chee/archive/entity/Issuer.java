@@ -59,9 +59,13 @@ import org.dcm4che3.data.Attributes;
 @NamedQuery(
     name="Issuer.findByEntityIDorUID",
     query="SELECT i FROM Issuer i WHERE i.localNamespaceEntityID = ?1 " +
-          "OR (i.universalEntityID = ?2 AND i.universalEntityIDType = ?3)")
+          "OR (i.universalEntityID = ?2 AND i.universalEntityIDType = ?3)"),
+@NamedQuery(
+    name="Issuer.findAll",
+    query="SELECT i FROM Issuer i")
 })
 @Entity
+@Cacheable
 @Table(name = "id_issuer",
 uniqueConstraints = {
         @UniqueConstraint(columnNames = "entity_id"),
@@ -78,6 +82,7 @@ public class Issuer extends org.dcm4che3.data.Issuer {
     public static final String FIND_BY_ENTITY_UID = "Issuer.findByEntityUID";
 
     public static final String FIND_BY_ENTITY_ID_OR_UID = "Issuer.findByEntityIDorUID";
+    public static final String FIND_ALL = "Issuer.findAll";
 
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
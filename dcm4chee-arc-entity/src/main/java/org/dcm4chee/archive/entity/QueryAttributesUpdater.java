@@ -0,0 +1,263 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+
+/**
+ * Maintains the {@link StudyQueryAttributes} and {@link SeriesQueryAttributes}
+ * of all Query/Retrieve Views on store, rejection and deletion of instances,
+ * so they need not to be recalculated from all instances of the study or
+ * series on the next query.
+ * <p>
+ * Adding an instance to a view updates the derived fields incrementally.
+ * Removing an instance from a view deletes the query attributes of that view,
+ * because e.g. Modalities in Study or the Retrieve AETs cannot be derived
+ * from the previous values. Views which neither included the instance before
+ * nor after the change are not touched.
+ * <p>
+ * The series and the study are locked and re-read and their versions are
+ * incremented, so a concurrent calculation of the query attributes,
+ * which did not see the modified instance, is not persisted by
+ * {@code QueryServiceEJB}. The query attributes of the series and of the
+ * study are locked and re-read afterwards, so concurrent transactions
+ * storing to the same study are serialized and do not lose updates. The
+ * series is locked before the study, in the same order as they are cleaned
+ * on other modifications. Has to be called after the modification of the
+ * instance was flushed.
+ */
+public class QueryAttributesUpdater {
+
+    private QueryAttributesUpdater() {
+    }
+
+    /**
+     * Initializes empty query attributes of a new series for all views for
+     * which the study has query attributes, so the first instance of the
+     * series can be added to the study query attributes incrementally.
+     * Has to be called before the series is persisted.
+     */
+    public static void onCreateSeries(Series series) {
+        Collection<StudyQueryAttributes> studyQueryAttrs = series.getStudy().getQueryAttributes();
+        if (studyQueryAttrs == null)
+            return;
+
+        for (StudyQueryAttributes studyAttrs : studyQueryAttrs) {
+            SeriesQueryAttributes seriesAttrs = new SeriesQueryAttributes();
+            seriesAttrs.setViewID(studyAttrs.getViewID());
+            series.addQueryAttributes(seriesAttrs);
+        }
+    }
+
+    /**
+     * Adds a stored instance, which refers to at least one location.
+     */
+    public static void onStore(EntityManager em, Instance inst,
+            ArchiveDeviceExtension arcDev) {
+        update(em, inst, arcDev, false, null, true);
+    }
+
+    /**
+     * Updates the query attributes after the Rejection Note Code of the
+     * instance was changed, e.g. by the rejection or restore of the instance.
+     */
+    public static void onRejectionNoteCodeChanged(EntityManager em, Instance inst,
+            Code prevRejectionNoteCode, ArchiveDeviceExtension arcDev) {
+        boolean present = !isDummy(inst);
+        update(em, inst, arcDev, present, prevRejectionNoteCode, present);
+    }
+
+    /**
+     * Removes an instance, which is going to be deleted.
+     */
+    public static void onDelete(EntityManager em, Instance inst,
+            ArchiveDeviceExtension arcDev) {
+        update(em, inst, arcDev, !isDummy(inst), inst.getRejectionNoteCode(), false);
+    }
+
+    private static void update(EntityManager em, Instance inst, ArchiveDeviceExtension arcDev,
+            boolean prevPresent, Code prevRejectionNoteCode, boolean present) {
+        Series series = inst.getSeries();
+        Study study = series.getStudy();
+        forceIncrementVersion(em, series);
+        forceIncrementVersion(em, study);
+        List<SeriesQueryAttributes> seriesQueryAttrs = lock(em,
+                SeriesQueryAttributes.FIND_BY_SERIES_FK, series.getPk(), SeriesQueryAttributes.class);
+        List<StudyQueryAttributes> studyQueryAttrs = lock(em,
+                StudyQueryAttributes.FIND_BY_STUDY_FK, study.getPk(), StudyQueryAttributes.class);
+        int numberOfVisibleImages = numberOfVisibleImages(inst, arcDev);
+
+        // update study query attributes first, which depend on the previous
+        // values of the series query attributes of the same view
+        for (StudyQueryAttributes studyAttrs : studyQueryAttrs) {
+            QueryRetrieveView view = arcDev.getQueryRetrieveView(studyAttrs.getViewID());
+            if (view == null) {
+                remove(em, study.getQueryAttributes(), studyAttrs);
+                continue;
+            }
+            boolean before = prevPresent && isIncluded(inst, prevRejectionNoteCode, view);
+            boolean after = present && isIncluded(inst, inst.getRejectionNoteCode(), view);
+            if (before == after)
+                continue;
+
+            SeriesQueryAttributes seriesAttrs =
+                    find(seriesQueryAttrs, studyAttrs.getViewID());
+            if (before || seriesAttrs == null) {
+                remove(em, study.getQueryAttributes(), studyAttrs);
+            } else {
+                studyAttrs.addInstance(inst,
+                        seriesAttrs.getNumberOfInstances() == 0,
+                        numberOfVisibleImages > 0
+                            && seriesAttrs.getNumberOfVisibleInstances() == 0,
+                        numberOfVisibleImages);
+            }
+        }
+        for (SeriesQueryAttributes seriesAttrs : seriesQueryAttrs) {
+            QueryRetrieveView view = arcDev.getQueryRetrieveView(seriesAttrs.getViewID());
+            if (view == null) {
+                remove(em, series.getQueryAttributes(), seriesAttrs);
+                continue;
+            }
+            boolean before = prevPresent && isIncluded(inst, prevRejectionNoteCode, view);
+            boolean after = present && isIncluded(inst, inst.getRejectionNoteCode(), view);
+            if (before == after)
+                continue;
+
+            if (before)
+                remove(em, series.getQueryAttributes(), seriesAttrs);
+            else
+                seriesAttrs.addInstance(inst, numberOfVisibleImages);
+        }
+    }
+
+    /**
+     * Locks and re-reads the series or study before its version is
+     * incremented, because a concurrent transaction may have incremented it
+     * since it was loaded by this transaction.
+     */
+    private static void forceIncrementVersion(EntityManager em, Object entity) {
+        em.refresh(entity, LockModeType.PESSIMISTIC_WRITE);
+        em.lock(entity, LockModeType.PESSIMISTIC_FORCE_INCREMENT);
+    }
+
+    /**
+     * Selects the query attributes for update and refreshes them, because
+     * rows already loaded by this transaction are not updated by the query.
+     */
+    private static <T> List<T> lock(EntityManager em, String queryName, long fk,
+            Class<T> type) {
+        List<T> list = em.createNamedQuery(queryName, type)
+                .setParameter(1, fk)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+        for (T queryAttrs : list)
+            em.refresh(queryAttrs);
+        return list;
+    }
+
+    private static void remove(EntityManager em, Collection<?> owner, Object queryAttrs) {
+        // also remove it from the collection of the study or series, which
+        // would persist it again by cascade otherwise
+        if (owner != null)
+            owner.remove(queryAttrs);
+        em.remove(queryAttrs);
+    }
+
+    private static SeriesQueryAttributes find(
+            Collection<SeriesQueryAttributes> seriesQueryAttrs, String viewID) {
+        if (seriesQueryAttrs != null)
+            for (SeriesQueryAttributes seriesAttrs : seriesQueryAttrs)
+                if (viewID.equals(seriesAttrs.getViewID()))
+                    return seriesAttrs;
+        return null;
+    }
+
+    private static int numberOfVisibleImages(Instance inst, ArchiveDeviceExtension arcDev) {
+        if (!arcDev.isVisibleSOPClass(inst.getSopClassUID()))
+            return 0;
+        Integer numberOfFrames = inst.getNumberOfFrames();
+        return numberOfFrames != null ? numberOfFrames : 1;
+    }
+
+    private static boolean isDummy(Instance inst) {
+        return isEmpty(inst.getLocations()) && isEmpty(inst.getExternalRetrieveLocations());
+    }
+
+    private static boolean isEmpty(Collection<?> c) {
+        return c == null || c.isEmpty();
+    }
+
+    /**
+     * Same as the predicates of
+     * {@code QueryBuilder.hideRejectedInstance} and
+     * {@code QueryBuilder.hideRejectionNote} applied to a single instance.
+     */
+    private static boolean isIncluded(Instance inst, Code rejectionNoteCode,
+            QueryRetrieveView view) {
+        if (rejectionNoteCode == null) {
+            if (view.isHideNotRejectedInstances())
+                return false;
+        } else {
+            org.dcm4che3.data.Code[] codes = view.getShowInstancesRejectedByCodes();
+            if (codes.length == 0
+                    ? !view.isHideNotRejectedInstances()
+                    : !contains(codes, rejectionNoteCode))
+                return false;
+        }
+
+        Code conceptNameCode = inst.getConceptNameCode();
+        return conceptNameCode == null
+                || !contains(view.getHideRejectionNotesWithCodes(), conceptNameCode);
+    }
+
+    private static boolean contains(org.dcm4che3.data.Code[] codes, Code code) {
+        for (org.dcm4che3.data.Code other : codes)
+            if (other.getCodeValue().equals(code.getCodeValue())
+                    && other.getCodingSchemeDesignator().equals(code.getCodingSchemeDesignator()))
+                return true;
+        return false;
+    }
+}
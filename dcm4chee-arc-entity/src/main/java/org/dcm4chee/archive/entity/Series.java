@@ -46,6 +46,7 @@ import org.dcm4chee.archive.conf.AttributeFilter;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -461,6 +462,13 @@ public class Series implements Serializable {
             queryAttributes.clear();
     }
 
+    public void addQueryAttributes(SeriesQueryAttributes queryAttrs) {
+        if (queryAttributes == null)
+            queryAttributes = new ArrayList<SeriesQueryAttributes>();
+        queryAttrs.setSeries(this);
+        queryAttributes.add(queryAttrs);
+    }
+
     public void setAttributes(Attributes attrs, AttributeFilter filter, FuzzyStr fuzzyStr, String nullValue) {
         seriesInstanceUID = attrs.getString(Tag.SeriesInstanceUID);
         seriesNumber = attrs.getString(Tag.SeriesNumber, nullValue);
@@ -53,6 +53,9 @@ import java.util.Date;
         @NamedQuery(
                 name=SeriesQueryAttributes.FIND_BY_VIEW_ID_AND_SERIES_FK,
                 query="SELECT sqa FROM SeriesQueryAttributes sqa WHERE sqa.viewID = ?1 AND sqa.series.pk = ?2"),
+        @NamedQuery(
+                name=SeriesQueryAttributes.FIND_BY_SERIES_FK,
+                query="SELECT sqa FROM SeriesQueryAttributes sqa WHERE sqa.series.pk = ?1"),
         @NamedQuery(
                 name = SeriesQueryAttributes.CLEAN_FOR_SERIES,
                 query="DELETE FROM SeriesQueryAttributes queryAttributes "
@@ -65,6 +68,7 @@ public class SeriesQueryAttributes {
 
 
     public static final String FIND_BY_VIEW_ID_AND_SERIES_FK = "SeriesQueryAttributes.findByViewIDAndSeriesFK";
+    public static final String FIND_BY_SERIES_FK = "SeriesQueryAttributes.findBySeriesFK";
     public static final String CLEAN_FOR_SERIES = "SeriesQueryAttributes.cleanForSeries";
 
     @Id
@@ -157,4 +161,28 @@ public class SeriesQueryAttributes {
     public void setSeries(Series series) {
         this.series = series;
     }
+
+    /**
+     * Adds an instance to the derived fields, same as a recalculation of
+     * all instances of the series would do.
+     *
+     * @param inst added instance
+     * @param numberOfVisibleImages number of frames of the instance or 0, if
+     *        the instance is not visible
+     */
+    public void addInstance(Instance inst, int numberOfVisibleImages) {
+        String[] instRetrieveAETs = inst.getRetrieveAETs();
+        if (numberOfInstances++ == 0 || availability == null) {
+            setRetrieveAETs(instRetrieveAETs);
+            availability = inst.getAvailability();
+        } else {
+            setRetrieveAETs(Utils.intersection(getRetrieveAETs(), instRetrieveAETs));
+            if (availability.compareTo(inst.getAvailability()) < 0)
+                availability = inst.getAvailability();
+        }
+        Date updatedTime = inst.getUpdatedTime();
+        if (lastUpdateTime == null || updatedTime.after(lastUpdateTime))
+            lastUpdateTime = updatedTime;
+        numberOfVisibleInstances += numberOfVisibleImages;
+    }
 }
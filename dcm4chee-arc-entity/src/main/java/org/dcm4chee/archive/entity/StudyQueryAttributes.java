@@ -52,6 +52,9 @@ import java.util.Date;
         @NamedQuery(
                 name = StudyQueryAttributes.FIND_BY_VIEW_ID_AND_STUDY_FK,
                 query = "SELECT sqa FROM StudyQueryAttributes sqa WHERE sqa.viewID = ?1 AND sqa.study.pk = ?2"),
+        @NamedQuery(
+                name = StudyQueryAttributes.FIND_BY_STUDY_FK,
+                query = "SELECT sqa FROM StudyQueryAttributes sqa WHERE sqa.study.pk = ?1"),
         @NamedQuery(
                 name = StudyQueryAttributes.CLEAN_FOR_STUDY,
                 query="DELETE FROM StudyQueryAttributes queryAttributes "
@@ -63,6 +66,7 @@ import java.util.Date;
 public class StudyQueryAttributes {
 
     public static final String FIND_BY_VIEW_ID_AND_STUDY_FK = "StudyQueryAttributes.findByViewIdAndStudyFK";
+    public static final String FIND_BY_STUDY_FK = "StudyQueryAttributes.findByStudyFK";
     public static final String CLEAN_FOR_STUDY = "StudyQueryAttributes.cleanForStudy";
 
 
@@ -208,4 +212,50 @@ public class StudyQueryAttributes {
     public void setStudy(Study study) {
         this.study = study;
     }
+
+    /**
+     * Adds an instance to the derived fields, same as a recalculation of
+     * all instances of the study would do.
+     *
+     * @param inst added instance
+     * @param firstOfSeries if the instance is the first of its series
+     *        included by this view
+     * @param firstVisibleOfSeries if the instance is the first visible
+     *        instance of its series included by this view
+     * @param numberOfVisibleImages number of frames of the instance or 0, if
+     *        the instance is not visible
+     */
+    public void addInstance(Instance inst, boolean firstOfSeries,
+            boolean firstVisibleOfSeries, int numberOfVisibleImages) {
+        String[] instRetrieveAETs = inst.getRetrieveAETs();
+        if (numberOfInstances++ == 0 || availability == null) {
+            setRetrieveAETs(instRetrieveAETs);
+            availability = inst.getAvailability();
+        } else {
+            setRetrieveAETs(Utils.intersection(getRetrieveAETs(), instRetrieveAETs));
+            if (availability.compareTo(inst.getAvailability()) < 0)
+                availability = inst.getAvailability();
+        }
+        if (firstOfSeries) {
+            numberOfSeries++;
+            String modality = inst.getSeries().getModality();
+            if (modality != null)
+                modalitiesInStudy = addValue(modalitiesInStudy, modality);
+        }
+        sopClassesInStudy = addValue(sopClassesInStudy, inst.getSopClassUID());
+        Date updatedTime = inst.getUpdatedTime();
+        if (lastUpdateTime == null || updatedTime.after(lastUpdateTime))
+            lastUpdateTime = updatedTime;
+        numberOfVisibleInstances += numberOfVisibleImages;
+        if (firstVisibleOfSeries)
+            numberOfVisibleSeries++;
+    }
+
+    private static String addValue(String values, String value) {
+        if (values == null || values.isEmpty())
+            return value;
+        return Utils.contains(StringUtils.split(values, '\\'), value)
+                ? values
+                : values + '\\' + value;
+    }
 }
@@ -0,0 +1,155 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.*;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+public class AttributesBlobTest {
+
+    private static Attributes attrs(String sopInstanceUID) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, sopInstanceUID);
+        return attrs;
+    }
+
+    @Test
+    public void testEncodedAttributesNotReencodedIfNotAccessed() {
+        byte[] encoded = Utils.encodeAttributes(attrs("1.2.3"));
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(encoded);
+        assertSame(encoded, blob.getEncodedAttributes());
+        assertSame(encoded, blob.getEncodedAttributes());
+    }
+
+    @Test
+    public void testDecodeOnGetAttributes() {
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(Utils.encodeAttributes(attrs("1.2.3")));
+        assertEquals("1.2.3", blob.getAttributes().getString(Tag.SOPInstanceUID));
+    }
+
+    @Test
+    public void testInPlaceModificationIsEncoded() {
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(Utils.encodeAttributes(attrs("1.2.3")));
+        blob.getAttributes().setString(Tag.SOPInstanceUID, VR.UI, "4.5.6");
+        assertEquals("4.5.6", Utils.decodeAttributes(blob.getEncodedAttributes())
+                .getString(Tag.SOPInstanceUID));
+    }
+
+    @Test
+    public void testUnmodifiedAttributesNotReencoded() {
+        byte[] encoded = Utils.encodeAttributes(attrs("1.2.3"));
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(encoded);
+        assertEquals("1.2.3", blob.getAttributes().getString(Tag.SOPInstanceUID));
+        assertSame(encoded, blob.getEncodedAttributes());
+    }
+
+    @Test
+    public void testModificationAfterDecodedAccessIsEncoded() {
+        byte[] encoded = Utils.encodeAttributes(attrs("1.2.3"));
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(encoded);
+        Attributes attrs = blob.getAttributes();
+        assertEquals("1.2.3", attrs.getString(Tag.SOPInstanceUID));
+        assertSame(encoded, blob.getEncodedAttributes());
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "4.5.6");
+        assertEquals("4.5.6", Utils.decodeAttributes(blob.getEncodedAttributes())
+                .getString(Tag.SOPInstanceUID));
+    }
+
+    @Test
+    public void testAddedEmptyItemIsEncoded() {
+        Attributes attrs = attrs("1.2.3");
+        attrs.newSequence(Tag.ReferencedSeriesSequence, 1);
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(Utils.encodeAttributes(attrs));
+        blob.getAttributes().getSequence(Tag.ReferencedSeriesSequence)
+                .add(new Attributes());
+        assertEquals(1, Utils.decodeAttributes(blob.getEncodedAttributes())
+                .getSequence(Tag.ReferencedSeriesSequence).size());
+    }
+
+    @Test
+    public void testSetAttributesEncodedOnce() {
+        AttributesBlob blob = new AttributesBlob(attrs("1.2.3"));
+        byte[] encoded = blob.getEncodedAttributes();
+        assertSame(encoded, blob.getEncodedAttributes());
+        blob.getAttributes().setString(Tag.SOPInstanceUID, VR.UI, "4.5.6");
+        assertNotSame(encoded, blob.getEncodedAttributes());
+    }
+
+    @Test
+    public void testInPlaceModificationOfNestedItemIsEncoded() {
+        Attributes attrs = attrs("1.2.3");
+        attrs.newSequence(Tag.ReferencedSeriesSequence, 1).add(attrs("4.5.6"));
+        AttributesBlob blob = new AttributesBlob();
+        blob.setEncodedAttributes(Utils.encodeAttributes(attrs));
+        byte[] encoded = blob.getEncodedAttributes();
+        blob.getAttributes().getNestedDataset(Tag.ReferencedSeriesSequence)
+                .setString(Tag.SOPInstanceUID, VR.UI, "7.8.9");
+        assertEquals("7.8.9", Utils.decodeAttributes(blob.getEncodedAttributes())
+                .getNestedDataset(Tag.ReferencedSeriesSequence)
+                .getString(Tag.SOPInstanceUID));
+        assertNotSame(encoded, blob.getEncodedAttributes());
+    }
+
+    @Test
+    public void testSetAttributes() {
+        Attributes attrs = attrs("1.2.3");
+        AttributesBlob blob = new AttributesBlob(attrs);
+        assertSame(attrs, blob.getAttributes());
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "4.5.6");
+        assertEquals("4.5.6", Utils.decodeAttributes(blob.getEncodedAttributes())
+                .getString(Tag.SOPInstanceUID));
+    }
+
+    @Test
+    public void testEmptyBlob() {
+        AttributesBlob blob = new AttributesBlob();
+        assertTrue(Utils.decodeAttributes(blob.getEncodedAttributes()).isEmpty());
+        assertTrue(blob.getAttributes().isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import javax.persistence.EntityManager;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4che3.soundex.FuzzyStr;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.junit.rules.EntityManagerFactoryRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class InstanceIT {
+
+    @ClassRule
+    public static final EntityManagerFactoryRule ENTITY_MANAGER_FACTORY_RULE =
+            new EntityManagerFactoryRule("instance-it");
+
+    private static int seriesCount;
+
+    private final AttributeFilter filter = new AttributeFilter();
+    private final FuzzyStr fuzzyStr = new ESoundex();
+
+    @Test
+    public void setAttributes_shouldStoreNumberOfFrames_whenMultiFrame() {
+        long pk = persistInstance(5);
+
+        assertEquals(Integer.valueOf(5), numberOfFrames(pk));
+    }
+
+    @Test
+    public void setAttributes_shouldStoreOneFrame_whenNumberOfFramesAbsent() {
+        long pk = persistInstance(null);
+
+        assertEquals(Integer.valueOf(1), numberOfFrames(pk));
+    }
+
+    @Test
+    public void updateNumberOfFrames_shouldOnlyUpdateGivenInstances() {
+        long pk1 = persistInstance(null);
+        long pk2 = persistInstance(null);
+        long pk3 = persistInstance(null);
+
+        EntityManager em = createEntityManager();
+        try {
+            em.getTransaction().begin();
+            int updated = em.createNamedQuery(Instance.UPDATE_NUMBER_OF_FRAMES)
+                    .setParameter(1, 7)
+                    .setParameter(2, Arrays.asList(pk1, pk2))
+                    .executeUpdate();
+            em.getTransaction().commit();
+            assertEquals(2, updated);
+        } finally {
+            em.close();
+        }
+
+        assertEquals(Integer.valueOf(7), numberOfFrames(pk1));
+        assertEquals(Integer.valueOf(7), numberOfFrames(pk2));
+        assertEquals(Integer.valueOf(1), numberOfFrames(pk3));
+    }
+
+    private long persistInstance(Integer numberOfFrames) {
+        String seriesIUID = "1.2.3." + (++seriesCount);
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, seriesIUID);
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, seriesIUID + ".1");
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, seriesIUID + ".1.1");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedCTImageStorage);
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        if (numberOfFrames != null)
+            attrs.setInt(Tag.NumberOfFrames, VR.IS, numberOfFrames);
+
+        EntityManager em = createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Patient patient = new Patient();
+            patient.setAttributes(new Attributes(), filter, fuzzyStr, "*");
+            em.persist(patient);
+            Study study = new Study();
+            study.setPatient(patient);
+            study.setAttributes(attrs, filter, fuzzyStr, "*");
+            em.persist(study);
+            Series series = new Series();
+            series.setStudy(study);
+            series.setAttributes(attrs, filter, fuzzyStr, "*");
+            em.persist(series);
+            Instance inst = new Instance();
+            inst.setSeries(series);
+            inst.setAttributes(attrs, filter, fuzzyStr, "*");
+            em.persist(inst);
+            em.getTransaction().commit();
+            return inst.getPk();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static Integer numberOfFrames(long instancePk) {
+        EntityManager em = createEntityManager();
+        try {
+            return em.find(Instance.class, instancePk).getNumberOfFrames();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static EntityManager createEntityManager() {
+        return ENTITY_MANAGER_FACTORY_RULE.getEntityManagerFactory().createEntityManager();
+    }
+}
@@ -0,0 +1,243 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4che3.soundex.FuzzyStr;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+import org.dcm4chee.archive.junit.rules.EntityManagerFactoryRule;
+import org.dcm4chee.storage.conf.Availability;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class QueryAttributesUpdaterIT {
+
+    @ClassRule
+    public static final EntityManagerFactoryRule ENTITY_MANAGER_FACTORY_RULE =
+            new EntityManagerFactoryRule("query-attrs-it");
+
+    private static final String VIEW_ID = "default";
+
+    private static int studyCount;
+
+    private final ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+
+    private long studyPk;
+    private long seriesPk;
+    private final long[] instancePks = new long[2];
+
+    @Before
+    public void before() {
+        QueryRetrieveView view = new QueryRetrieveView();
+        view.setViewID(VIEW_ID);
+        arcDev.setQueryRetrieveViews(view);
+
+        String studyIUID = "1.2.3." + (++studyCount);
+        AttributeFilter filter = new AttributeFilter();
+        FuzzyStr fuzzyStr = new ESoundex();
+        EntityManager em = createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Patient patient = new Patient();
+            patient.setAttributes(new Attributes(), filter, fuzzyStr, "*");
+            em.persist(patient);
+
+            Attributes attrs = new Attributes();
+            attrs.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+            attrs.setString(Tag.SeriesInstanceUID, VR.UI, studyIUID + ".1");
+            attrs.setString(Tag.Modality, VR.CS, "CT");
+            attrs.setString(Tag.SOPClassUID, VR.UI, UID.CTImageStorage);
+
+            Study study = new Study();
+            study.setPatient(patient);
+            study.setAttributes(attrs, filter, fuzzyStr, "*");
+            em.persist(study);
+
+            Series series = new Series();
+            series.setStudy(study);
+            series.setAttributes(attrs, filter, fuzzyStr, "*");
+            em.persist(series);
+
+            Location location = new Location.Builder()
+                    .storageSystemGroupID("group")
+                    .storageSystemID("fs")
+                    .storagePath(studyIUID)
+                    .transferSyntaxUID(UID.ExplicitVRLittleEndian)
+                    .status(Location.Status.OK)
+                    .build();
+            for (int i = 0; i < instancePks.length; i++) {
+                attrs.setString(Tag.SOPInstanceUID, VR.UI, studyIUID + ".1." + i);
+                Instance inst = new Instance();
+                inst.setSeries(series);
+                inst.setAttributes(attrs, filter, fuzzyStr, "*");
+                inst.setRetrieveAETs("DCM4CHEE");
+                inst.setAvailability(Availability.ONLINE);
+                em.persist(inst);
+                location.addInstance(inst);
+            }
+            em.persist(location);
+
+            StudyQueryAttributes studyAttrs = new StudyQueryAttributes();
+            studyAttrs.setViewID(VIEW_ID);
+            studyAttrs.setStudy(study);
+            em.persist(studyAttrs);
+            SeriesQueryAttributes seriesAttrs = new SeriesQueryAttributes();
+            seriesAttrs.setViewID(VIEW_ID);
+            seriesAttrs.setSeries(series);
+            em.persist(seriesAttrs);
+            em.getTransaction().commit();
+
+            studyPk = study.getPk();
+            seriesPk = series.getPk();
+            for (Instance inst : location.getInstances())
+                instancePks[inst.getSopInstanceUID().endsWith(".0") ? 0 : 1] = inst.getPk();
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void onStore_shouldNotLoseUpdates_whenStoringConcurrentlyToOneStudy() throws Exception {
+        final CyclicBarrier loaded = new CyclicBarrier(instancePks.length);
+        ExecutorService executor = Executors.newFixedThreadPool(instancePks.length);
+        try {
+            Future<?>[] stores = new Future<?>[instancePks.length];
+            for (int i = 0; i < instancePks.length; i++) {
+                final long instancePk = instancePks[i];
+                stores[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        store(instancePk, loaded);
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> store : stores)
+                store.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        EntityManager em = createEntityManager();
+        try {
+            StudyQueryAttributes studyAttrs = em.createNamedQuery(
+                    StudyQueryAttributes.FIND_BY_VIEW_ID_AND_STUDY_FK, StudyQueryAttributes.class)
+                    .setParameter(1, VIEW_ID)
+                    .setParameter(2, studyPk)
+                    .getSingleResult();
+            SeriesQueryAttributes seriesAttrs = em.createNamedQuery(
+                    SeriesQueryAttributes.FIND_BY_VIEW_ID_AND_SERIES_FK, SeriesQueryAttributes.class)
+                    .setParameter(1, VIEW_ID)
+                    .setParameter(2, seriesPk)
+                    .getSingleResult();
+            assertEquals(2, studyAttrs.getNumberOfInstances());
+            assertEquals(1, studyAttrs.getNumberOfSeries());
+            assertEquals(2, seriesAttrs.getNumberOfInstances());
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void onStore_shouldIncrementVersions_soConcurrentCalculationIsDiscarded() throws Exception {
+        // versions read by a calculation of the query attributes, which
+        // started before the instance was stored
+        long studyVersion;
+        long seriesVersion;
+        EntityManager em = createEntityManager();
+        try {
+            studyVersion = em.find(Study.class, studyPk).getVersion();
+            seriesVersion = em.find(Series.class, seriesPk).getVersion();
+        } finally {
+            em.close();
+        }
+
+        store(instancePks[0], new CyclicBarrier(1));
+
+        em = createEntityManager();
+        try {
+            assertNotEquals(studyVersion, em.find(Study.class, studyPk).getVersion());
+            assertNotEquals(seriesVersion, em.find(Series.class, seriesPk).getVersion());
+        } finally {
+            em.close();
+        }
+    }
+
+    private void store(long instancePk, CyclicBarrier loaded) throws Exception {
+        EntityManager em = createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Instance inst = em.find(Instance.class, instancePk);
+            // load the query attributes in both transactions before either updates them
+            inst.getSeries().getQueryAttributes().size();
+            inst.getSeries().getStudy().getQueryAttributes().size();
+            inst.getLocations().size();
+            loaded.await(10, TimeUnit.SECONDS);
+            QueryAttributesUpdater.onStore(em, inst, arcDev);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    private static EntityManager createEntityManager() {
+        return ENTITY_MANAGER_FACTORY_RULE.getEntityManagerFactory().createEntityManager();
+    }
+}
@@ -41,10 +41,12 @@ package org.dcm4chee.archive.hl7;
 import java.net.Socket;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
 import javax.enterprise.inject.Typed;
 import javax.inject.Inject;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.hl7.HL7Exception;
 import org.dcm4che3.hl7.HL7Segment;
@@ -57,6 +59,7 @@ import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.ArchiveHL7ApplicationExtension;
 import org.dcm4chee.archive.conf.StoreParam;
 import org.dcm4chee.archive.patient.PatientService;
+import org.dcm4chee.archive.patient.PatientUpdateEvent;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -68,6 +71,9 @@ public class PatientUpdateService extends DefaultHL7Service {
     @Inject
     private PatientService patientService;
 
+    @Inject
+    private Event<PatientUpdateEvent> patientUpdateEvent;
+
     public PatientUpdateService() {
         super("ADT^A02", "ADT^A03", "ADT^A06", "ADT^A07", "ADT^A08", "ADT^A40");
     }
@@ -89,8 +95,12 @@ public class PatientUpdateService extends DefaultHL7Service {
             StoreParam storeParam = arcDev.getStoreParam();
             if (mrg == null) {
                 patientService.updateOrCreatePatientByHL7(attrs, storeParam);
+                patientUpdateEvent.fire(new PatientUpdateEvent(
+                        IDWithIssuer.pidOf(attrs)));
             } else {
                 patientService.mergePatientByHL7(attrs, mrg, storeParam);
+                patientUpdateEvent.fire(new PatientUpdateEvent(
+                        IDWithIssuer.pidOf(attrs), IDWithIssuer.pidOf(mrg)));
             }
             return super.onMessage(hl7App, conn, s, msh, msg, off, len, mshlen);
         } catch (Exception e) {
@@ -47,17 +47,17 @@ import java.util.Iterator;
 
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Instance;
-import org.dcm4chee.archive.entity.Series;
-import org.dcm4chee.archive.entity.SeriesQueryAttributes;
-import org.dcm4chee.archive.entity.Study;
-import org.dcm4chee.archive.entity.StudyQueryAttributes;
+import org.dcm4chee.archive.entity.QueryAttributesUpdater;
 import org.dcm4chee.archive.iocm.RejectionServiceDeleteBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,24 +72,20 @@ public class RejectionServiceDeleteEJB implements RejectionServiceDeleteBean {
 
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     public EntityManager em;
-    
+
+    @Inject
+    private Device device;
+
     @Override
     public Collection<Location> deleteRejected(Object source, Collection<Instance> instances) {
         try {
             Collection<Location> toBeDeleted = new HashSet<Location>();
-            Study study = null;
-            Series series = null;
+            ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
             for (Instance inst : instances) {
                 inst = em.find(Instance.class, inst.getPk());
                 if (isRejected(inst)) {
-                    if(series != inst.getSeries()) {
-                        series = inst.getSeries();
-                        em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES).setParameter(1, series.getPk()).executeUpdate();
-                    }
-                    if(study != inst.getSeries().getStudy()) {
-                        study = inst.getSeries().getStudy();
-                        em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, study.getPk()).executeUpdate();
-                    }
+                    // only views showing the rejected instance are affected
+                    QueryAttributesUpdater.onDelete(em, inst, arcDev);
                     toBeDeleted.addAll(detachReferences(inst));
                     em.remove(inst);
                     LOG.info("Removing {} and Scheduling delete for associated file references", inst);
@@ -39,13 +39,19 @@
 package org.dcm4chee.archive.iocm.impl;
 
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Instance;
-import org.dcm4chee.archive.entity.Series;
-import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.entity.QueryAttributesUpdater;
 import org.dcm4chee.archive.iocm.InstanceAlreadyRejectedException;
 import org.dcm4chee.archive.iocm.RejectionService;
 
@@ -60,10 +66,16 @@ public class RejectionServiceImpl implements RejectionService {
 
     private static Logger LOG = LoggerFactory.getLogger(RejectionServiceImpl.class);
 
+    @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
+    private EntityManager em;
+
+    @Inject
+    private Device device;
+
     @Override
     public int reject(Object source, Collection<Instance> instances,
             Code rejectionCode, org.dcm4che3.data.Code[] prevRejectionCodes) {
-        int count = 0;
+        Map<Instance, Code> prevRejectionCodeByInstance = new IdentityHashMap<Instance, Code>();
         for (Instance inst : instances) {
             Code prevRejectionCode = inst.getRejectionNoteCode();
             if (rejectionCode.equals(prevRejectionCode))
@@ -73,16 +85,17 @@ public class RejectionServiceImpl implements RejectionService {
                 throw new InstanceAlreadyRejectedException(inst);
 
             LOG.debug("{}: Apply rejection {} to {}", source, rejectionCode, inst);
-            updateInstance(inst, rejectionCode);
-            count++;
+            inst.setRejectionNoteCode(rejectionCode);
+            prevRejectionCodeByInstance.put(inst, prevRejectionCode);
         }
-        return count;
+        updateQueryAttributes(prevRejectionCodeByInstance);
+        return prevRejectionCodeByInstance.size();
     }
 
     @Override
     public int restore(Object source, Collection<Instance> instances,
             org.dcm4che3.data.Code[] prevRejectionCodes) {
-        int count = 0;
+        Map<Instance, Code> prevRejectionCodeByInstance = new IdentityHashMap<Instance, Code>();
         for (Instance inst : instances) {
             Code prevRejectionCode = inst.getRejectionNoteCode();
             if (prevRejectionCode == null)
@@ -92,10 +105,11 @@ public class RejectionServiceImpl implements RejectionService {
                 throw new InstanceAlreadyRejectedException(inst);
 
             LOG.debug("{}: Revoke rejection {} of {}", source, prevRejectionCode, inst);
-            updateInstance(inst, null);
-            count++;
+            inst.setRejectionNoteCode(null);
+            prevRejectionCodeByInstance.put(inst, prevRejectionCode);
         }
-        return count;
+        updateQueryAttributes(prevRejectionCodeByInstance);
+        return prevRejectionCodeByInstance.size();
     }
 
     
@@ -112,12 +126,15 @@ public class RejectionServiceImpl implements RejectionService {
         return false;
     }
 
-    private void updateInstance(Instance inst, Code rejectionCode) {
-        inst.setRejectionNoteCode(rejectionCode);
-        Series series = inst.getSeries();
-        Study study = series.getStudy();
-        series.clearQueryAttributes();
-        study.clearQueryAttributes();
+    private void updateQueryAttributes(Map<Instance, Code> prevRejectionCodeByInstance) {
+        if (prevRejectionCodeByInstance.isEmpty())
+            return;
+
+        // flush first, so the query attributes are updated after the modification of the instances
+        em.flush();
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        for (Map.Entry<Instance, Code> entry : prevRejectionCodeByInstance.entrySet())
+            QueryAttributesUpdater.onRejectionNoteCodeChanged(em, entry.getKey(), entry.getValue(), arcDev);
     }
     
 }
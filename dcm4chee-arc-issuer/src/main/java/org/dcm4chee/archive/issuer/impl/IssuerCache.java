@@ -0,0 +1,135 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.issuer.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.dcm4chee.archive.entity.Issuer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of the primary keys of persisted issuers, loaded at
+ * startup. Entities are not cached, so they are never shared between
+ * persistence contexts and may be modified by callers, e.g. on merging
+ * patient identifiers.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class IssuerCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerCache.class);
+
+    @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
+    private EntityManager em;
+
+    private final ConcurrentHashMap<String, Long> issuers =
+            new ConcurrentHashMap<String, Long>();
+
+    @PostConstruct
+    public void init() {
+        List<Issuer> list = em.createNamedQuery(Issuer.FIND_ALL, Issuer.class)
+                .getResultList();
+        for (Issuer issuer : list) {
+            String entityID = issuer.getLocalNamespaceEntityID();
+            String entityUID = issuer.getUniversalEntityID();
+            String entityUIDType = issuer.getUniversalEntityIDType();
+            // entity ID and entity UID are each unique, so the issuer is
+            // found by any combination of its own identifiers
+            issuers.put(keyOf(entityID, entityUID, entityUIDType), issuer.getPk());
+            if (entityID != null && entityUID != null) {
+                issuers.put(keyOf(entityID, null, null), issuer.getPk());
+                issuers.put(keyOf(null, entityUID, entityUIDType), issuer.getPk());
+            }
+        }
+        LOG.info("Loaded {} issuers into cache", list.size());
+    }
+
+    /**
+     * @return primary key of the issuer, or <code>null</code> if it is not cached
+     */
+    public Long get(Issuer issuer) {
+        return issuers.get(keyOf(issuer));
+    }
+
+    public void put(Issuer issuer, Issuer entity) {
+        issuers.put(keyOf(issuer), entity.getPk());
+    }
+
+    /**
+     * Persists the issuer in its own transaction, so it is visible to other
+     * transactions and cluster nodes as soon as this method returns.
+     * Fails if the issuer was created concurrently by another transaction.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Issuer create(Issuer issuer) {
+        Issuer entity = new Issuer(issuer);
+        em.persist(entity);
+        em.flush();
+        return entity;
+    }
+
+    private static String keyOf(Issuer issuer) {
+        return keyOf(issuer.getLocalNamespaceEntityID(),
+                issuer.getUniversalEntityID(),
+                issuer.getUniversalEntityIDType());
+    }
+
+    private static String keyOf(String entityID, String entityUID,
+            String entityUIDType) {
+        StringBuilder sb = new StringBuilder();
+        if (entityID != null)
+            sb.append(entityID);
+        if (entityUID != null)
+            sb.append('&').append(entityUID).append('&').append(entityUIDType);
+        return sb.toString();
+    }
+}
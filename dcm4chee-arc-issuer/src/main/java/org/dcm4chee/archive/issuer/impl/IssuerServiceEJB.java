@@ -38,6 +38,8 @@
 
 package org.dcm4chee.archive.issuer.impl;
 
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -46,6 +48,8 @@ import javax.persistence.TypedQuery;
 
 import org.dcm4chee.archive.entity.Issuer;
 import org.dcm4chee.archive.issuer.IssuerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -54,17 +58,43 @@ import org.dcm4chee.archive.issuer.IssuerService;
 @Stateless
 public class IssuerServiceEJB implements IssuerService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerServiceEJB.class);
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
+    @EJB
+    private IssuerCache cache;
+
     @Override
     public Issuer findOrCreate(Issuer issuer) {
+        Long pk = cache.get(issuer);
+        // load the entity into this persistence context by its primary key
+        // from the second level cache, instead of sharing one instance
+        // between transactions
+        if (pk != null) {
+            Issuer cached = em.find(Issuer.class, pk);
+            if (cached != null)
+                return cached;
+        }
+
+        Issuer entity;
         try {
-            return find(issuer);
+            entity = find(issuer);
         } catch (NoResultException e) {
-            em.persist(issuer);
-            return issuer;
+            try {
+                Issuer created = cache.create(issuer);
+                cache.put(issuer, created);
+                // created in its own transaction
+                return em.find(Issuer.class, created.getPk());
+            } catch (EJBException e2) {
+                // created concurrently by another transaction or cluster node
+                LOG.debug("Failed to create {} - try to find it again", issuer, e2);
+                entity = find(issuer);
+            }
         }
+        cache.put(issuer, entity);
+        return entity;
     }
 
     private Issuer find(Issuer issuer) {
@@ -38,6 +38,8 @@
 
 package org.dcm4chee.archive.locationmgmt;
 
+import org.dcm4chee.archive.entity.Location;
+
 /**
  * @author Hesham Elbadawi <bsdreko@gmail.com>
  * 
@@ -57,6 +59,8 @@ public interface DeleterService {
 
     long calculateDataVolumePerDayInBytes(String groupID);
 
+    void onLocationStored(Location location);
+
     boolean validateGroupForDeletion(String groupID);
 
 }
@@ -47,6 +47,7 @@ import javax.persistence.NoResultException;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.entity.StudyOnStorageSystemGroup;
 
 /**
  * @author Hesham Elbadawi <bsdreko@gmail.com>
@@ -78,6 +79,16 @@ public interface LocationMgmt {
             String studyRetentionUnit, String groupID, String studyInstanceUID,
             String seriesInstanceUID);
 
+    /**
+     * Returns studies on the storage system group not accessed within the
+     * retention time and not marked for deletion, in order of their access
+     * time. Pages through the studies by passing the last study of the
+     * previous page as <code>after</code>.
+     */
+    List<StudyOnStorageSystemGroup> findStudiesDueDelete(int studyRetention,
+            String studyRetentionUnit, String groupID,
+            StudyOnStorageSystemGroup after, int maxResults);
+
     long calculateDataVolumePerDayInBytes(String groupID, 
             int dvdAverageOnNDays);
 
@@ -0,0 +1,88 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.locationmgmt.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the usable space on the storage systems of one storage
+ * system group. The usable space is read from the storage systems by
+ * {@link #sync(Map)} and in between adjusted by the size of stored and
+ * of scheduled deleted files.
+ */
+class FreeSpaceTracker {
+
+    private final Map<String, Long> usableSpace = new HashMap<String, Long>();
+
+    private long lastSync;
+
+    synchronized boolean isDueSync(long syncIntervalInMillis) {
+        return lastSync == 0L
+                || System.currentTimeMillis() - lastSync >= syncIntervalInMillis;
+    }
+
+    synchronized void sync(Map<String, Long> usableSpaceBySystemID) {
+        usableSpace.clear();
+        usableSpace.putAll(usableSpaceBySystemID);
+        lastSync = System.currentTimeMillis();
+    }
+
+    synchronized void invalidate() {
+        lastSync = 0L;
+    }
+
+    synchronized Long getUsableSpace(String systemID) {
+        return usableSpace.get(systemID);
+    }
+
+    synchronized void stored(String systemID, long size) {
+        add(systemID, -size);
+    }
+
+    synchronized void deleted(String systemID, long size) {
+        add(systemID, size);
+    }
+
+    private void add(String systemID, long size) {
+        Long space = usableSpace.get(systemID);
+        if (space != null)
+            usableSpace.put(systemID, space + size);
+    }
+}
@@ -48,6 +48,7 @@ import org.dcm4chee.archive.dto.ActiveService;
 import org.dcm4chee.archive.entity.ExternalRetrieveLocation;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.archive.entity.StudyOnStorageSystemGroup;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
 import org.dcm4chee.archive.locationmgmt.DeleterService;
 import org.dcm4chee.archive.locationmgmt.LocationDeleteResult;
@@ -104,7 +105,11 @@ public class LocationDeleteServiceImpl implements DeleterService {
     private Map<String, Date> lastDVDCalculationDateMap;
 
     private Map<String, Long> lastCalculatedDVDInBytesMap;
+
+    private ConcurrentHashMap<String, FreeSpaceTracker> freeSpaceTrackers;
     
+    private static final int STUDIES_DUE_DELETE_PAGE_SIZE = 100;
+
     private static final List<ActiveService> ACTIVE_ARCHIVE_OR_DELETER_SERVICES = Arrays.asList(ActiveService.LOCAL_ARCHIVING, 
             ActiveService.DELETER_SERVICE, ActiveService.STORE_REMEMBER_ARCHIVING);
 
@@ -112,6 +117,7 @@ public class LocationDeleteServiceImpl implements DeleterService {
     public void init() {
         lastDVDCalculationDateMap = new ConcurrentHashMap<String, Date>();
         lastCalculatedDVDInBytesMap = new ConcurrentHashMap<String, Long>();
+        freeSpaceTrackers = new ConcurrentHashMap<String, FreeSpaceTracker>();
     }
 
     @Override
@@ -161,6 +167,13 @@ public class LocationDeleteServiceImpl implements DeleterService {
         }
     }
 
+    @Override
+    public void onLocationStored(Location location) {
+        FreeSpaceTracker tracker = freeSpaceTrackers.get(location.getStorageSystemGroupID());
+        if (tracker != null)
+            tracker.stored(location.getStorageSystemID(), location.getSize());
+    }
+
     @Override
     public boolean validateGroupForDeletion(String groupID) {
         ArchiveDeviceExtension arcExt = device
@@ -364,28 +377,46 @@ public class LocationDeleteServiceImpl implements DeleterService {
         return false;
     }
 
+    /**
+     * Pages through the studies on the group in order of their access time
+     * and schedules the deletion of one study after the other, until enough
+     * free space is expected. Only the instances of the current study are
+     * loaded. The expected data volume is calculated once per round and the
+     * free space is taken from the {@link FreeSpaceTracker} of the group.
+     */
     private void freeSpace(DeletionRule rule) {
 
         if (validateGroupForDeletion(rule.getStorageSystemGroupID())) {
             int minTimeToKeepStudy = rule.getMinTimeStudyNotAccessed();
             String minTimeToKeppStudyUnit = rule
                     .getMinTimeStudyNotAccessedUnit();
-            List<Instance> allInstancesDueDeleteOnGroup =
-                    locationManager.findInstancesDueDelete(minTimeToKeepStudy
-                            , minTimeToKeppStudyUnit, rule.getStorageSystemGroupID(), null, null);
-
-            Map<String, List<Instance>> mapInstancesFoundOnGroupToStudy =
-                    getInstancesOnGroupPerStudyMap(allInstancesDueDeleteOnGroup, rule);
-            for (String studyUID : mapInstancesFoundOnGroupToStudy
-                    .keySet()) {
-                if (!rule.isDeleteAsMuchAsPossible()
-                        && !needsFreeSpace(rule.getStorageSystemGroupID(), calculateExpectedDataVolumePerDay(rule)))
-                    break;
-                markCorrespondingStudyAndScheduleForDeletion(
-                        studyUID,
-                        rule,
-                        filterCopiesExist(mapInstancesFoundOnGroupToStudy.get(studyUID), rule));
-            }
+            long expectedDataVolume = calculateExpectedDataVolumePerDay(rule);
+            StudyOnStorageSystemGroup last = null;
+            List<StudyOnStorageSystemGroup> studiesDueDelete;
+            pages:
+            do {
+                studiesDueDelete = locationManager.findStudiesDueDelete(
+                        minTimeToKeepStudy, minTimeToKeppStudyUnit,
+                        rule.getStorageSystemGroupID(), last, STUDIES_DUE_DELETE_PAGE_SIZE);
+                for (StudyOnStorageSystemGroup studyOnGroup : studiesDueDelete) {
+                    if (!rule.isDeleteAsMuchAsPossible()
+                            && !needsFreeSpace(rule.getStorageSystemGroupID(), expectedDataVolume))
+                        break pages;
+                    String studyUID = studyOnGroup.getStudy().getStudyInstanceUID();
+                    if (!activeProcessingService.isStudyUnderProcessingByServices(
+                            studyUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES)) {
+                        List<Instance> instancesDueDelete = locationManager
+                                .findInstancesDueDelete(minTimeToKeepStudy,
+                                        minTimeToKeppStudyUnit,
+                                        rule.getStorageSystemGroupID(), studyUID, null);
+                        markCorrespondingStudyAndScheduleForDeletion(
+                                studyUID,
+                                rule,
+                                filterCopiesExist(getInstancesOnGroup(instancesDueDelete, rule), rule));
+                    }
+                    last = studyOnGroup;
+                }
+            } while (studiesDueDelete.size() == STUDIES_DUE_DELETE_PAGE_SIZE);
             handleFailedToDeleteLocations(rule.getStorageSystemGroupID());
         }
     }
@@ -408,6 +439,29 @@ public class LocationDeleteServiceImpl implements DeleterService {
     private boolean needsFreeSpace(String groupID, long thresholdInBytes) {
         StorageDeviceExtension stgExt = device.getDeviceExtension(StorageDeviceExtension.class);
         StorageSystemGroup group = stgExt.getStorageSystemGroup(groupID);
+        FreeSpaceTracker tracker = freeSpaceTracker(groupID);
+        if (tracker.isDueSync(freeSpaceSyncInterval() * 1000L))
+            syncFreeSpace(group, tracker);
+        for(String systemID : group.getStorageSystems().keySet()) {
+            StorageSystem system = group.getStorageSystem(systemID);
+            if(isUsableSystem(system)) {
+                Long usableSpace = tracker.getUsableSpace(systemID);
+                if(usableSpace != null && usableSpace
+                        < system.getMinFreeSpaceInBytes() + thresholdInBytes)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the usable space of all usable storage systems of the group into
+     * the tracker. A storage system without provider or whose usable space
+     * cannot be determined is skipped and keeps its previously tracked value,
+     * so it does not prevent the other storage systems from being synced.
+     */
+    private void syncFreeSpace(StorageSystemGroup group, FreeSpaceTracker tracker) {
+        Map<String, Long> usableSpace = new HashMap<String, Long>();
         for(String systemID : group.getStorageSystems().keySet()) {
             StorageSystem system = group.getStorageSystem(systemID);
             StorageSystemProvider provider = system
@@ -416,27 +470,44 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 LOG.info("Location Deleter Service : system {}'s "
                         + "has no configured provider, deletion "
                         + "will not apply", system);
-                return false;
+                keepPreviousUsableSpace(systemID, tracker, usableSpace);
+                continue;
             }
             if(isUsableSystem(system)) {
                 try {
-                if(system.getMinFreeSpace() != null && system.getMinFreeSpaceInBytes() == -1L)
-                    system.setMinFreeSpaceInBytes(provider.getTotalSpace()
-                            * Integer.parseInt(system.getMinFreeSpace()
-                                    .replace("%", ""))/100);
-                    if(provider.getUsableSpace() 
-                            < system.getMinFreeSpaceInBytes() + thresholdInBytes) 
-                    return true;
+                    if(system.getMinFreeSpace() != null && system.getMinFreeSpaceInBytes() == -1L)
+                        system.setMinFreeSpaceInBytes(provider.getTotalSpace()
+                                * Integer.parseInt(system.getMinFreeSpace()
+                                        .replace("%", ""))/100);
+                    usableSpace.put(systemID, provider.getUsableSpace());
                 } catch (IOException e) {
                     LOG.error("Location Deleter Service : "
                             + "failed to determine usable/total space on "
                             + "volume configured for system {} - reason {}"
                             , system, e);
-                    return false;
+                    keepPreviousUsableSpace(systemID, tracker, usableSpace);
                 }
             }
         }
-        return false;
+        tracker.sync(usableSpace);
+    }
+
+    private static void keepPreviousUsableSpace(String systemID,
+            FreeSpaceTracker tracker, Map<String, Long> usableSpace) {
+        Long previous = tracker.getUsableSpace(systemID);
+        if (previous != null)
+            usableSpace.put(systemID, previous);
+    }
+
+    private FreeSpaceTracker freeSpaceTracker(String groupID) {
+        FreeSpaceTracker tracker = freeSpaceTrackers.get(groupID);
+        if (tracker == null) {
+            tracker = new FreeSpaceTracker();
+            FreeSpaceTracker prev = freeSpaceTrackers.putIfAbsent(groupID, tracker);
+            if (prev != null)
+                tracker = prev;
+        }
+        return tracker;
     }
 
     private long calculateExpectedDataVolumePerDay(DeletionRule rule) {
@@ -509,40 +580,18 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 && system.getAvailability() != Availability.UNAVAILABLE;
     }
 
-    private Map<String,List<Instance>> getInstancesOnGroupPerStudyMap(
-            List<Instance> allInstancesDueDelete
-            , DeletionRule rule) {
-
-        Map<String,List<Instance>> instancesOnGroupPerStudyMap = new HashMap<String, List<Instance>>();
-        
-        if(allInstancesDueDelete == null)
-            return instancesOnGroupPerStudyMap;
-        
-        for(Instance inst : allInstancesDueDelete) {
-            
-            String studyUID = inst.getSeries().getStudy().getStudyInstanceUID();
-            if(!instancesOnGroupPerStudyMap.containsKey(studyUID))
-                instancesOnGroupPerStudyMap.put(studyUID, new ArrayList<Instance>());
-            for(Location loc : inst.getLocations()) {
-                if(loc.getStorageSystemGroupID().compareTo(rule.getStorageSystemGroupID()) == 0)
-                    instancesOnGroupPerStudyMap.get(studyUID).add(inst);
-            }
-        }
-        return removePendingArchivingOrDeletion(instancesOnGroupPerStudyMap);
-    }
-
-    private Map<String, List<Instance>> removePendingArchivingOrDeletion(
-            Map<String, List<Instance>> instancesOnGroupPerStudyMap) {
-        Map<String, List<Instance>> adjustedInstancesOnGroupPerStudyMap = 
-                new HashMap<String, List<Instance>>();
-        for(String studyUID : instancesOnGroupPerStudyMap.keySet()) {
-            if (!activeProcessingService.isStudyUnderProcessingByServices(studyUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES)) {
-                adjustedInstancesOnGroupPerStudyMap.put(studyUID, 
-                        instancesOnGroupPerStudyMap.get(studyUID));
+    private List<Instance> getInstancesOnGroup(List<Instance> instancesDueDelete,
+            DeletionRule rule) {
+        List<Instance> instancesOnGroup = new ArrayList<Instance>(instancesDueDelete.size());
+        for (Instance inst : instancesDueDelete) {
+            for (Location loc : inst.getLocations()) {
+                if (loc.getStorageSystemGroupID().compareTo(rule.getStorageSystemGroupID()) == 0) {
+                    instancesOnGroup.add(inst);
+                    break;
+                }
             }
         }
-        
-        return adjustedInstancesOnGroupPerStudyMap;
+        return instancesOnGroup;
     }
 
     private List<Instance> removePendingArchivingOrDeletion(String studyIUID, List<Instance>instancesOnGroup) {
@@ -589,8 +638,10 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 tmpInstancesScheduled.clear();
             for (Instance inst : instancesDueDelete)
                 try {
-                    locationManager.scheduleDelete(
-                            getLocationsOnGroup(inst, rule.getStorageSystemGroupID()), 1000, true);
+                    Collection<Location> locations =
+                            getLocationsOnGroup(inst, rule.getStorageSystemGroupID());
+                    locationManager.scheduleDelete(locations, 1000, true);
+                    deleted(locations);
                     tmpInstancesScheduled.add(inst);
                     activeProcessingService.addActiveProcess(studyInstanceUID, 
                             inst.getSeries().getSeriesInstanceUID(), 
@@ -608,6 +659,14 @@ public class LocationDeleteServiceImpl implements DeleterService {
             }
     }
 
+    private void deleted(Collection<Location> locations) {
+        for (Location loc : locations) {
+            FreeSpaceTracker tracker = freeSpaceTrackers.get(loc.getStorageSystemGroupID());
+            if (tracker != null)
+                tracker.deleted(loc.getStorageSystemID(), loc.getSize());
+        }
+    }
+
     private void markCorrespondingStudyAndDoDeletion(
             String studyInstanceUID, DeletionRule rule,
             List<Instance> instancesDueDelete) {
@@ -622,6 +681,9 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 locationManager.doDelete(locationManager.filterForMarkedForDeletionStudiesOnGroup(pks), true);
             }
             locationManager.purgeStudiesRejectedOrDeletedOnAllGroups();
+            FreeSpaceTracker tracker = freeSpaceTrackers.get(rule.getStorageSystemGroupID());
+            if (tracker != null)
+                tracker.invalidate();
         }
     }
 
@@ -769,6 +831,12 @@ public class LocationDeleteServiceImpl implements DeleterService {
         return arcExt.getDataVolumePerDayCalculationRange();
     }
 
+    private int freeSpaceSyncInterval() {
+        ArchiveDeviceExtension arcExt = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        return arcExt.getFreeSpaceSyncInterval();
+    }
+
     private int dataVolumePerDayAverageOnNDays() {
         ArchiveDeviceExtension arcExt = device
                 .getDeviceExtension(ArchiveDeviceExtension.class);
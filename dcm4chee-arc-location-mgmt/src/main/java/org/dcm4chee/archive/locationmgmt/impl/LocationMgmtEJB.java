@@ -48,6 +48,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -372,13 +373,36 @@ public class LocationMgmtEJB implements LocationMgmt {
         
         query.orderBy(QStudyOnStorageSystemGroup.studyOnStorageSystemGroup.accessTime.asc());
         List<Tuple> tuples = query.list(QInstance.instance, QStudyOnStorageSystemGroup.studyOnStorageSystemGroup);
-        List<Instance> locationsToDelete = new ArrayList<>();
+        Set<Instance> locationsToDelete = new LinkedHashSet<>();
         for(Tuple tuple: tuples) {
-            tuple.get(QInstance.instance).getExternalRetrieveLocations().size();
-            if(!locationsToDelete.contains(tuple.get(QInstance.instance)))
-            locationsToDelete.add(tuple.get(QInstance.instance));
+            Instance inst = tuple.get(QInstance.instance);
+            if (locationsToDelete.add(inst))
+                inst.getExternalRetrieveLocations().size();
         }
-        return locationsToDelete;
+        return new ArrayList<>(locationsToDelete);
+    }
+
+    @Override
+    public List<StudyOnStorageSystemGroup> findStudiesDueDelete(int studyRetention,
+            String studyRetentionUnit, String groupID,
+            StudyOnStorageSystemGroup after, int maxResults) {
+        Timestamp studyDueDate = new Timestamp(getStudyDueDate(studyRetention, studyRetentionUnit).getTimeInMillis());
+        QStudyOnStorageSystemGroup studyOnGroup = QStudyOnStorageSystemGroup.studyOnStorageSystemGroup;
+
+        JPAQuery query = new JPAQuery(em);
+        query.from(studyOnGroup)
+        .innerJoin(studyOnGroup.study).fetch()
+        .where(studyOnGroup.markedForDeletion.isFalse())
+        .where(studyOnGroup.accessTime.before(studyDueDate))
+        .where(studyOnGroup.storageSystemGroupID.eq(groupID));
+        if (after != null)
+            query.where(studyOnGroup.accessTime.after(after.getAccessTime())
+                    .or(studyOnGroup.accessTime.eq(after.getAccessTime())
+                            .and(studyOnGroup.pk.gt(after.getPk()))));
+
+        return query.orderBy(studyOnGroup.accessTime.asc(), studyOnGroup.pk.asc())
+                .limit(maxResults)
+                .list(studyOnGroup);
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,158 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.mima.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dcm4che3.hl7.MLLPConnection;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.util.SafeClose;
+
+/**
+ * Keeps up to {@code maxIdle} idle MLLP connections per key open, so
+ * subsequent requests to the same HL7 application do not have to connect
+ * again. Idle connections are closed after {@code idleTimeout} ms.
+ */
+class MLLPConnectionPool {
+
+    interface Connector {
+        MLLPConnection connect() throws IOException,
+                IncompatibleConnectionException, GeneralSecurityException;
+    }
+
+    private static class IdleConnection {
+        final MLLPConnection conn;
+        final long since = System.currentTimeMillis();
+
+        IdleConnection(MLLPConnection conn) {
+            this.conn = conn;
+        }
+    }
+
+    private final Map<String, ArrayDeque<IdleConnection>> idleConnections =
+            new HashMap<String, ArrayDeque<IdleConnection>>();
+    private final int maxIdle;
+    private final long idleTimeout;
+
+    MLLPConnectionPool(int maxIdle, long idleTimeout) {
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Sends the message over an idle connection of the pool or over a new
+     * connection and returns the response. If sending over an idle
+     * connection fails - e.g. because the peer closed it meanwhile - the
+     * message is sent again over a new connection.
+     */
+    byte[] request(String key, Connector connector, byte[] msg)
+            throws IOException, IncompatibleConnectionException,
+            GeneralSecurityException {
+        MLLPConnection conn = takeIdle(key);
+        if (conn != null) {
+            try {
+                byte[] rsp = request(conn, msg);
+                release(key, conn);
+                return rsp;
+            } catch (IOException e) {
+                close(conn);
+            }
+        }
+        conn = connector.connect();
+        try {
+            byte[] rsp = request(conn, msg);
+            release(key, conn);
+            return rsp;
+        } catch (IOException e) {
+            close(conn);
+            throw e;
+        }
+    }
+
+    synchronized int idleConnections(String key) {
+        ArrayDeque<IdleConnection> idle = idleConnections.get(key);
+        return idle != null ? idle.size() : 0;
+    }
+
+    synchronized void closeAll() {
+        for (ArrayDeque<IdleConnection> idle : idleConnections.values())
+            for (IdleConnection idleConn : idle)
+                close(idleConn.conn);
+        idleConnections.clear();
+    }
+
+    private static byte[] request(MLLPConnection conn, byte[] msg)
+            throws IOException {
+        conn.writeMessage(msg);
+        byte[] rsp = conn.readMessage();
+        if (rsp == null)
+            throw new EOFException("Connection closed by peer");
+        return rsp;
+    }
+
+    private synchronized MLLPConnection takeIdle(String key) {
+        ArrayDeque<IdleConnection> idle = idleConnections.get(key);
+        if (idle == null)
+            return null;
+        long now = System.currentTimeMillis();
+        while (!idle.isEmpty() && now - idle.peekFirst().since >= idleTimeout)
+            close(idle.pollFirst().conn);
+        IdleConnection idleConn = idle.pollLast();
+        return idleConn != null ? idleConn.conn : null;
+    }
+
+    private synchronized void release(String key, MLLPConnection conn) {
+        ArrayDeque<IdleConnection> idle = idleConnections.get(key);
+        if (idle == null)
+            idleConnections.put(key, idle = new ArrayDeque<IdleConnection>(maxIdle));
+        if (idle.size() < maxIdle)
+            idle.addLast(new IdleConnection(conn));
+        else
+            close(conn);
+    }
+
+    private static void close(MLLPConnection conn) {
+        SafeClose.close(conn.getSocket());
+    }
+}
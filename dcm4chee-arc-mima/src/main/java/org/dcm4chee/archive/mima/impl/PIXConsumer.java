@@ -41,9 +41,14 @@ package org.dcm4chee.archive.mima.impl;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 
 import org.dcm4che3.conf.core.api.ConfigurationException;
@@ -53,13 +58,13 @@ import org.dcm4che3.hl7.HL7Message;
 import org.dcm4che3.hl7.HL7Segment;
 import org.dcm4che3.hl7.MLLPConnection;
 import org.dcm4che3.net.CompatibleConnection;
-import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.net.IncompatibleConnectionException;
 import org.dcm4che3.net.hl7.HL7Application;
 import org.dcm4che3.net.hl7.HL7DeviceExtension;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.dto.GenericParticipant;
+import org.dcm4chee.archive.patient.PatientUpdateEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,7 +81,19 @@ public class PIXConsumer {
     
     @Inject
     private Event<PixQueryEvent> pixQueryEvent;
-    
+
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+
+    private static final long CONNECTION_IDLE_TIMEOUT = 60000L;
+
+    private static final int MAX_CACHED_PIX_QUERIES = 10000;
+
+    private final MLLPConnectionPool connectionPool =
+            new MLLPConnectionPool(MAX_IDLE_CONNECTIONS, CONNECTION_IDLE_TIMEOUT);
+
+    private final ConcurrentHashMap<String, CachedPIDs> cache =
+            new ConcurrentHashMap<String, CachedPIDs>();
+
     public IDWithIssuer[] pixQuery(ArchiveAEExtension aeExt, IDWithIssuer pid) {
         if (pid == null)
             return IDWithIssuer.EMPTY;
@@ -86,6 +103,16 @@ public class PIXConsumer {
         if (pixConsumer == null || pixManager == null
                 || containsWildcard(pid.getID()) || pid.getIssuer() == null)
             return new IDWithIssuer[] { pid };
+
+        int cacheTimeout = aeExt.getPIXCacheTimeout();
+        String cacheKey = pixManager + '\\' + pid;
+        if (cacheTimeout > 0) {
+            CachedPIDs cached = cache.get(cacheKey);
+            if (cached != null && cached.expires > System.currentTimeMillis()) {
+                LOG.debug("Use cached PIX Query result for PID: {}", pid);
+                return cached.pids.clone();
+            }
+        }
         
         ArrayList<IDWithIssuer> pids = new ArrayList<IDWithIssuer>();
         pids.add(pid);
@@ -118,6 +145,15 @@ public class PIXConsumer {
             } else {
                 LOG.info("No other PIDs found for PID: {}", pid);
             }
+            // do not cache error responses, e.g. of an overloaded PIX Manager
+            HL7Segment msa = rsp.getSegment("MSA");
+            String ackCode = msa != null ? msa.getField(1, null) : null;
+            if (!"AA".equals(ackCode))
+                LOG.info("PIX Query for PID: {} not accepted - Acknowledgment Code: {}", pid, ackCode);
+            else if (cacheTimeout > 0)
+                putCached(cacheKey, new CachedPIDs(
+                        pids.toArray(new IDWithIssuer[pids.size()]),
+                        System.currentTimeMillis() + cacheTimeout * 1000L));
         } catch (Exception e) {
             LOG.info("PIX Query failed: ", e);
         }
@@ -125,23 +161,65 @@ public class PIXConsumer {
         return pids.toArray(new IDWithIssuer[pids.size()]);
     }
 
+    /**
+     * Removes cached PIX Query results which contain one of the Patient IDs
+     * of the updated or merged patients.
+     */
+    public void onPatientUpdate(@Observes PatientUpdateEvent event) {
+        for (Iterator<CachedPIDs> iter = cache.values().iterator(); iter.hasNext();) {
+            if (iter.next().containsAny(event.getPatientIDs()))
+                iter.remove();
+        }
+    }
+
+    /**
+     * Removes expired PIX Query results before caching a new one. If the
+     * cache is still full, the result which expires first is removed.
+     */
+    private void putCached(String key, CachedPIDs cached) {
+        long now = System.currentTimeMillis();
+        Map.Entry<String, CachedPIDs> first = null;
+        for (Iterator<Map.Entry<String, CachedPIDs>> iter = cache.entrySet().iterator();
+                iter.hasNext();) {
+            Map.Entry<String, CachedPIDs> entry = iter.next();
+            if (entry.getValue().expires <= now)
+                iter.remove();
+            else if (first == null || entry.getValue().expires < first.getValue().expires)
+                first = entry;
+        }
+        if (first != null && cache.size() >= MAX_CACHED_PIX_QUERIES)
+            cache.remove(first.getKey(), first.getValue());
+        cache.put(key, cached);
+    }
+
+    @PreDestroy
+    public void closeConnections() {
+        connectionPool.closeAll();
+    }
+
     private boolean containsWildcard(String s) {
         return s.indexOf('*') >= 0 || s.indexOf('?') >= 0;
     }
 
-    private HL7Message pixQuery(HL7Application pixConsumerApp,
+    private HL7Message pixQuery(final HL7Application pixConsumerApp,
             HL7Application pixManagerApp, HL7Message qbp, IDWithIssuer pid)
             throws IncompatibleConnectionException, IOException, GeneralSecurityException {
-        CompatibleConnection cc = pixConsumerApp.findCompatibelConnection(pixManagerApp);
-        Connection conn = cc.getLocalConnection();
-        MLLPConnection mllpConn = pixConsumerApp.connect(conn, cc.getRemoteConnection());
+        final CompatibleConnection cc = pixConsumerApp.findCompatibelConnection(pixManagerApp);
         String charset = pixConsumerApp.getHL7DefaultCharacterSet();
         try {
-            mllpConn.writeMessage(qbp.getBytes(charset));
-            HL7Message rsp = HL7Message.parse(mllpConn.readMessage(), charset);
-            return rsp;
+            byte[] rsp = connectionPool.request(
+                    pixConsumerApp.getApplicationName() + '\\' + pixManagerApp.getApplicationName(),
+                    new MLLPConnectionPool.Connector() {
+                        @Override
+                        public MLLPConnection connect() throws IOException,
+                                IncompatibleConnectionException, GeneralSecurityException {
+                            return pixConsumerApp.connect(
+                                    cc.getLocalConnection(), cc.getRemoteConnection());
+                        }
+                    },
+                    qbp.getBytes(charset));
+            return HL7Message.parse(rsp, charset);
         } finally {
-            conn.close(mllpConn.getSocket());
             pixQueryEvent.fire(new PixQueryEvent(
                     new GenericParticipant(cc.getRemoteConnection().getHostname(), 
                             qbp.getSegment("MSH").getReceivingApplicationWithFacility()),
@@ -151,4 +229,22 @@ public class PIXConsumer {
                             pixConsumerApp.getDevice()));
         }
     }
+
+    private static class CachedPIDs {
+        final IDWithIssuer[] pids;
+        final long expires;
+
+        CachedPIDs(IDWithIssuer[] pids, long expires) {
+            this.pids = pids;
+            this.expires = expires;
+        }
+
+        boolean containsAny(IDWithIssuer[] others) {
+            for (IDWithIssuer pid : pids)
+                for (IDWithIssuer other : others)
+                    if (other != null && pid.matches(other))
+                        return true;
+            return false;
+        }
+    }
 }
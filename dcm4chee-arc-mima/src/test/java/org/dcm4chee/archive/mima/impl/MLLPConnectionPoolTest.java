@@ -0,0 +1,151 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.mima.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.hl7.MLLPConnection;
+import org.dcm4che3.util.SafeClose;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link MLLPConnectionPool} against a local MLLP stand-in, which
+ * echoes each received message.
+ */
+public class MLLPConnectionPoolTest {
+
+    private static final String KEY = "PIX_CONSUMER\\PIX_MANAGER";
+
+    private ServerSocket serverSocket;
+
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    private volatile boolean closeAfterResponse;
+
+    private MLLPConnectionPool pool;
+
+    private final MLLPConnectionPool.Connector connector =
+            new MLLPConnectionPool.Connector() {
+                @Override
+                public MLLPConnection connect() throws IOException {
+                    return new MLLPConnection(new Socket(
+                            InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+                }
+            };
+
+    @Before
+    public void before() throws IOException {
+        serverSocket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        final Socket s = serverSocket.accept();
+                        accepted.incrementAndGet();
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                echo(s);
+                            }
+                        }.start();
+                    }
+                } catch (IOException e) {
+                    // server socket closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        pool = new MLLPConnectionPool(1, 60000L);
+    }
+
+    @After
+    public void after() {
+        pool.closeAll();
+        SafeClose.close(serverSocket);
+    }
+
+    private void echo(Socket s) {
+        try {
+            MLLPConnection conn = new MLLPConnection(s);
+            byte[] msg;
+            while ((msg = conn.readMessage()) != null) {
+                conn.writeMessage(msg);
+                if (closeAfterResponse)
+                    break;
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            SafeClose.close(s);
+        }
+    }
+
+    @Test
+    public void testReuseIdleConnection() throws Exception {
+        Assert.assertArrayEquals("msg1".getBytes(), pool.request(KEY, connector, "msg1".getBytes()));
+        Assert.assertArrayEquals("msg2".getBytes(), pool.request(KEY, connector, "msg2".getBytes()));
+        Assert.assertEquals(1, accepted.get());
+        Assert.assertEquals(1, pool.idleConnections(KEY));
+    }
+
+    @Test
+    public void testReconnectIfIdleConnectionClosedByPeer() throws Exception {
+        closeAfterResponse = true;
+        Assert.assertArrayEquals("msg1".getBytes(), pool.request(KEY, connector, "msg1".getBytes()));
+        Assert.assertArrayEquals("msg2".getBytes(), pool.request(KEY, connector, "msg2".getBytes()));
+        Assert.assertEquals(2, accepted.get());
+    }
+
+    @Test
+    public void testCloseExpiredIdleConnection() throws Exception {
+        pool = new MLLPConnectionPool(1, 0L);
+        pool.request(KEY, connector, "msg1".getBytes());
+        pool.request(KEY, connector, "msg2".getBytes());
+        Assert.assertEquals(2, accepted.get());
+    }
+}
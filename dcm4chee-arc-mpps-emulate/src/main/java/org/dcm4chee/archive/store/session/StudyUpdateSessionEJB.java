@@ -39,13 +39,11 @@
 package org.dcm4chee.archive.store.session;
 
 import org.dcm4che3.net.Device;
-import org.dcm4chee.archive.conf.StoreAction;
 import org.dcm4chee.archive.entity.Study;
 import org.dcm4chee.archive.entity.StudyUpdateSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.*;
@@ -69,20 +67,13 @@ public class StudyUpdateSessionEJB {
     Device device;
 
     /**
-     * Adds/updates existing StudyUpdateSession entity with information about currently stored study
+     * Adds/updates existing StudyUpdateSession entity with information about the instances of a study stored since
+     * the last update
      */
-    @SuppressWarnings("unchecked")
-    @Asynchronous
-    public void addStoredInstance(String sourceAET,
-                                  String localAET,
-                                  String studyInstanceUID,
-                                  String seriesInstanceUID,
-                                  String sopInstanceUID,
-                                  StoreAction storeAction,
-                                  int emulationDelaySec) {
-
-        Date emulationTime = new Date(System.currentTimeMillis() + emulationDelaySec * 1000L);
+    public void addStoredInstances(StudyUpdatedEvent storedInstances, Date emulationTime) {
 
+        String studyInstanceUID = storedInstances.getStudyInstanceUID();
+        String sourceAET = storedInstances.getSourceAET();
         try {
             // try to find an existing study update session
             StudyUpdateSession entity = em
@@ -97,14 +88,16 @@ public class StudyUpdateSessionEJB {
             // we are neither on critical path nor blocking other c-stores
             em.lock(entity, LockModeType.PESSIMISTIC_WRITE);
 
-            // bump the timeout
-            entity.setEmulationTime(emulationTime);
+            // bump the timeout, updates may be applied out of order
+            if (entity.getEmulationTime().before(emulationTime))
+                entity.setEmulationTime(emulationTime);
 
-            // add stored instance, affected series 
-            entity.getPendingStudyUpdatedEvent().addStoredInstance(localAET, sopInstanceUID, seriesInstanceUID, storeAction);
+            // add stored instances, affected series
+            addAll(entity.getPendingStudyUpdatedEvent(), storedInstances);
 
             em.merge(entity);
-            LOG.debug("Modified study update session for Study[iuid={}] received from {}", studyInstanceUID, sourceAET);
+            LOG.debug("Added {} instances to study update session for Study[iuid={}] received from {}",
+                    storedInstances.getStoredInstances().size(), studyInstanceUID, sourceAET);
 
         } catch (NoResultException nre) {
 
@@ -116,7 +109,7 @@ public class StudyUpdateSessionEJB {
 
             entity.getPendingStudyUpdatedEvent().setSourceAET(sourceAET);
             entity.getPendingStudyUpdatedEvent().setStudyInstanceUID(studyInstanceUID);
-            entity.getPendingStudyUpdatedEvent().addStoredInstance(localAET, sopInstanceUID, seriesInstanceUID, storeAction);
+            addAll(entity.getPendingStudyUpdatedEvent(), storedInstances);
 
             em.persist(entity);
 
@@ -124,6 +117,12 @@ public class StudyUpdateSessionEJB {
         }
     }
 
+    private static void addAll(StudyUpdatedEvent pending, StudyUpdatedEvent storedInstances) {
+        pending.getStoredInstances().addAll(storedInstances.getStoredInstances());
+        pending.getAffectedSeriesUIDs().addAll(storedInstances.getAffectedSeriesUIDs());
+        pending.getLocalAETs().addAll(storedInstances.getLocalAETs());
+    }
+
     public StudyUpdatedEvent findNextFinishedStudyUpdateSession() {
         List<StudyUpdateSession> resultList = em
                 .createNamedQuery(StudyUpdateSession.FIND_READY_TO_FINISH, StudyUpdateSession.class)
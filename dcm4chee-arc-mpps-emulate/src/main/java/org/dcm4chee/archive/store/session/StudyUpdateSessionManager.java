@@ -62,6 +62,11 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -71,6 +76,10 @@ import java.util.concurrent.TimeUnit;
  * - when store session is finished/when study is changed during the session
  * - when no more instances of a study are received for a configured amount of time
  *
+ * In the latter case, the instances received for a study are collected in memory and written to the
+ * StudyUpdateSession entity once per configured flush interval and when the store session is closed,
+ * if the flush interval is less than the emulation delay of the rule.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @author Roman K
  */
@@ -79,6 +88,8 @@ public class StudyUpdateSessionManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(StudyUpdateSessionManager.class);
 
+    private static final String PENDING_STUDY_UPDATE_KEYS = "pendingStudyUpdateKeys";
+
     @Inject
     private StudyUpdateSessionEJB ejb;
 
@@ -97,6 +108,13 @@ public class StudyUpdateSessionManager {
     private int lastPollingInterval;
     private ScheduledFuture<?> polling;
 
+    private int lastFlushInterval;
+    private int flushInterval;
+    private ScheduledFuture<?> flushing;
+
+    private final ConcurrentHashMap<String, PendingStudyUpdate> pendingStudyUpdates =
+            new ConcurrentHashMap<String, PendingStudyUpdate>();
+
     public void onInstanceStored(@Observes StoreContext storeContext) {
 
         StoreSession storeSession = storeContext.getStoreSession();
@@ -119,15 +137,31 @@ public class StudyUpdateSessionManager {
 
         // if a delay is configured => multiple associations/cluster nodes case => update the StudyStoreSession entity
         if (rule.getEmulationDelay() > -1) {
-            // async call
-            ejb.addStoredInstance(
-                    remoteAET,
-                    localAET,
-                    studyInstanceUID,
-                    seriesInstanceUID,
-                    sopInstanceUID,
-                    storeAction,
-                    rule.getEmulationDelay());
+            long emulationTime = System.currentTimeMillis() + rule.getEmulationDelay() * 1000L;
+
+            // no flushing daemon or a flush interval not less than the delay => update the entity for each
+            // instance, async from the current thread, so another node cannot finish the session meanwhile
+            if (!isFlushingWithin(rule.getEmulationDelay())) {
+                StudyUpdatedEvent storedInstance = new StudyUpdatedEvent(studyInstanceUID, remoteAET);
+                storedInstance.addStoredInstance(localAET, sopInstanceUID, seriesInstanceUID, storeAction);
+                addStoredInstancesAsync(storedInstance, new Date(emulationTime));
+                return;
+            }
+
+            // collect the instance in memory, it will be written to the entity by the next flush
+            String key = studyInstanceUID + '\\' + remoteAET;
+            StudyUpdatedEvent storedInstance = new StudyUpdatedEvent(studyInstanceUID, remoteAET);
+            storedInstance.addStoredInstance(localAET, sopInstanceUID, seriesInstanceUID, storeAction);
+            addPendingStudyUpdate(key, storedInstance, emulationTime);
+
+            // remember the study to flush it when the store session is closed
+            @SuppressWarnings("unchecked")
+            Set<String> keys = (Set<String>) storeSession.getProperty(PENDING_STUDY_UPDATE_KEYS);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                storeSession.setProperty(PENDING_STUDY_UPDATE_KEYS, keys);
+            }
+            keys.add(key);
         }
         // otherwise the StudyUpdatedEvent is bound to the Association/StoreSession
         else {
@@ -156,6 +190,18 @@ public class StudyUpdateSessionManager {
     }
 
     public void onStoreSessionClosed(@Observes @StoreSessionClosed StoreSession storeSession) {
+        @SuppressWarnings("unchecked")
+        final Set<String> keys = (Set<String>) storeSession.getProperty(PENDING_STUDY_UPDATE_KEYS);
+        if (keys != null) {
+            device.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (String key : keys)
+                        flushPendingStudyUpdate(key);
+                }
+            });
+        }
+
         StudyUpdatedEvent pendingStudyUpdatedEvent = (StudyUpdatedEvent) storeSession.getProperty("pendingStudyUpdatedEvent");
 
         // in case of multiple associations/cluster nodes
@@ -166,20 +212,32 @@ public class StudyUpdateSessionManager {
 
 
     public void onArchiveServiceStarted(@Observes @ArchiveServiceStarted StartStopReloadEvent start) {
+        startFlushing(lastFlushInterval = getConfiguredFlushInterval());
         startPolling(lastPollingInterval = getConfiguredPollInterval());
     }
 
     public void onArchiveServiceStopped(@Observes @ArchiveServiceStopped StartStopReloadEvent stop) {
         stopPolling();
+        stopFlushing();
     }
 
     public void onArchiveServiceReloaded(@Observes @ArchiveServiceReloaded StartStopReloadEvent reload) {
+        if (lastFlushInterval != getConfiguredFlushInterval()) {
+            stopFlushing();
+            startFlushing(lastFlushInterval = getConfiguredFlushInterval());
+        }
         if (lastPollingInterval != getConfiguredPollInterval()) {
             stopPolling();
             startPolling(lastPollingInterval = getConfiguredPollInterval());
         }
     }
 
+    protected int getConfiguredFlushInterval() {
+        return device
+                .getDeviceExtension(ArchiveDeviceExtension.class)
+                .getStudyUpdateSessionFlushInterval();
+    }
+
     protected int getConfiguredPollInterval() {
         return device
                 .getDeviceExtension(ArchiveDeviceExtension.class)
@@ -210,7 +268,114 @@ public class StudyUpdateSessionManager {
         }
     }
 
+    /**
+     * @return true if instances are flushed in an interval less than the specified emulation delay in s
+     */
+    protected synchronized boolean isFlushingWithin(int emulationDelay) {
+        return flushing != null && flushInterval < emulationDelay;
+    }
+
+    protected synchronized void startFlushing(int flushInterval) {
+        if (flushing == null && flushInterval > 0) {
+            flushing = device.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushPendingStudyUpdates();
+                    } catch (Exception e) {
+                        LOG.error("Error while flushing pending study update sessions: ", e);
+                    }
+                }
+            }, flushInterval, flushInterval, TimeUnit.SECONDS);
+            this.flushInterval = flushInterval;
+            LOG.info("Study update session tracking daemon: start flushing received instances with interval {}s", flushInterval);
+        }
+    }
+
+    protected void stopFlushing() {
+        synchronized (this) {
+            if (flushing == null)
+                return;
+
+            flushing.cancel(false);
+            flushing = null;
+            LOG.info("Study update session tracking daemon: stop flushing received instances");
+        }
+        flushPendingStudyUpdates();
+    }
+
+    /**
+     * Writes all instances collected in memory to the corresponding StudyUpdateSession entities. Instances,
+     * which failed to be written, are kept in memory for the next flush.
+     *
+     * @return number of flushed study update sessions
+     */
+    public int flushPendingStudyUpdates() {
+        int count = 0;
+        // iterate over a copy of the keys, failed updates are added again
+        for (String key : new ArrayList<String>(pendingStudyUpdates.keySet()))
+            if (flushPendingStudyUpdate(key))
+                count++;
+        return count;
+    }
+
+    private boolean flushPendingStudyUpdate(String key) {
+        PendingStudyUpdate pending = pendingStudyUpdates.remove(key);
+        if (pending == null)
+            return false;
+
+        pending.close();
+        try {
+            ejb.addStoredInstances(pending.storedInstances, new Date(pending.emulationTime));
+        } catch (Exception e) {
+            // e.g. a lock timeout or a concurrent creation of the session - retry by the next flush
+            LOG.warn("Failed to update study update session for Study[iuid={}] received from {} with {} instances " +
+                            "- retry by next flush: ",
+                    pending.storedInstances.getStudyInstanceUID(),
+                    pending.storedInstances.getSourceAET(),
+                    pending.storedInstances.getStoredInstances().size(), e);
+            addPendingStudyUpdate(key, pending.storedInstances, pending.emulationTime);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merges the instances into the pending update of the study, which is created if it does not exist
+     * or was already flushed
+     */
+    private void addPendingStudyUpdate(String key, StudyUpdatedEvent storedInstances, long emulationTime) {
+        PendingStudyUpdate pending;
+        do {
+            pending = pendingStudyUpdates.get(key);
+            if (pending == null) {
+                PendingStudyUpdate newPending = new PendingStudyUpdate(
+                        storedInstances.getStudyInstanceUID(), storedInstances.getSourceAET());
+                pending = pendingStudyUpdates.putIfAbsent(key, newPending);
+                if (pending == null)
+                    pending = newPending;
+            }
+        } while (!pending.addAll(storedInstances, emulationTime));
+    }
+
+    private void addStoredInstancesAsync(final StudyUpdatedEvent storedInstances, final Date emulationTime) {
+        device.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ejb.addStoredInstances(storedInstances, emulationTime);
+                } catch (Exception e) {
+                    LOG.error("Failed to update study update session for Study[iuid={}] received from {}: ",
+                            storedInstances.getStudyInstanceUID(), storedInstances.getSourceAET(), e);
+                }
+            }
+        });
+    }
+
     public int checkAndNotifyOfUpdatedStudies() {
+        // make sure that sessions are not finished while instances received for them are still pending
+        flushPendingStudyUpdates();
+
         int count = 0;
         while (notifyAboutNextFinishedUpdate()) count++;
         return count;
@@ -250,4 +415,36 @@ public class StudyUpdateSessionManager {
             LOG.warn("StudyUpdatedEvent was scheduled to be fired for study {}, but the study cannot be found anymore => not triggering the event", studyUpdatedEvent.getStudyInstanceUID());
         }
     }
+
+    /**
+     * Instances of a study received from a source AET since the last flush
+     */
+    private static class PendingStudyUpdate {
+
+        private final StudyUpdatedEvent storedInstances;
+        private long emulationTime;
+        private boolean closed;
+
+        PendingStudyUpdate(String studyInstanceUID, String sourceAET) {
+            storedInstances = new StudyUpdatedEvent(studyInstanceUID, sourceAET);
+        }
+
+        /**
+         * @return false if the pending update was already flushed and a new one has to be created
+         */
+        synchronized boolean addAll(StudyUpdatedEvent other, long emulationTime) {
+            if (closed)
+                return false;
+
+            storedInstances.getStoredInstances().addAll(other.getStoredInstances());
+            storedInstances.getAffectedSeriesUIDs().addAll(other.getAffectedSeriesUIDs());
+            storedInstances.getLocalAETs().addAll(other.getLocalAETs());
+            this.emulationTime = Math.max(this.emulationTime, emulationTime);
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+    }
 }
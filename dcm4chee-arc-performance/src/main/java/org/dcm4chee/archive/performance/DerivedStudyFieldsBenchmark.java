@@ -0,0 +1,150 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.QInstance;
+import org.dcm4chee.archive.entity.QSeries;
+import org.dcm4chee.archive.query.DerivedStudyFields;
+import org.dcm4chee.archive.query.impl.DefaultDerivedStudyFields;
+import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.query.BooleanBuilder;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.hibernate.HibernateQuery;
+
+/**
+ * Measures the calculation of the derived Study fields (number of instances,
+ * modalities, SOP classes, visible images, ...) as done by
+ * {@code QueryServiceEJB.calculateStudyQueryAttributes}: once including the
+ * query against the {@link EmbeddedDatabase} and once only
+ * {@link DefaultDerivedStudyFields#addInstance} on pre-fetched tuples.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DerivedStudyFieldsBenchmark {
+
+    /**
+     * Number of instances per CT series; the study consists of 4 CT series
+     * and one SR series.
+     */
+    @Param({"100", "1250"})
+    public int instancesPerSeries;
+
+    private EmbeddedDatabase db;
+
+    private Device device;
+
+    private QueryParam queryParam;
+
+    private long studyPk;
+
+    private List<Tuple> tuples;
+
+    @Setup
+    public void setup() {
+        db = EmbeddedDatabase.open();
+        studyPk = db.populate(1, 1, 5, instancesPerSeries);
+        device = new Device("dcm4chee-arc-performance");
+        ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+        arcDev.setUseWhitelistOfVisibleImageSRClasses(false);
+        device.addDeviceExtension(arcDev);
+        queryParam = SyntheticDatasets.createQueryParam();
+        tuples = query().list(new DefaultDerivedStudyFields(device).fields());
+        db.getEntityManager().clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public DerivedStudyFields queryAndAddInstances() {
+        DerivedStudyFields fields = new DefaultDerivedStudyFields(device);
+        try (CloseableIterator<Tuple> results = query().iterate(fields.fields())) {
+            while (results.hasNext())
+                fields.addInstance(results.next(), queryParam);
+        }
+        db.getEntityManager().clear();
+        return fields;
+    }
+
+    @Benchmark
+    public DerivedStudyFields addInstances() {
+        DerivedStudyFields fields = new DefaultDerivedStudyFields(device);
+        for (Tuple tuple : tuples)
+            fields.addInstance(tuple, queryParam);
+        return fields;
+    }
+
+    private HibernateQuery query() {
+        // the synthetic instances have no locations, therefore
+        // QueryBuilder.hideDummyInstances() is not applied
+        BooleanBuilder builder = new BooleanBuilder(QSeries.series.study.pk.eq(studyPk));
+        builder.and(QueryBuilder.hideRejectedInstance(queryParam));
+        builder.and(QueryBuilder.hideRejectionNote(queryParam));
+        return new HibernateQuery(db.getSession())
+                .from(QInstance.instance)
+                .innerJoin(QInstance.instance.series, QSeries.series)
+                .where(builder);
+    }
+}
@@ -0,0 +1,162 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4che3.soundex.FuzzyStr;
+import org.dcm4chee.archive.conf.Entity;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Patient;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.storage.conf.Availability;
+import org.hibernate.Session;
+
+/**
+ * Embedded in-memory H2 database populated with synthetic patients, studies,
+ * series and instances. The schema is created from the entity mappings on
+ * {@link #open()} and dropped again on {@link #close()}.
+ */
+public class EmbeddedDatabase implements AutoCloseable {
+
+    public static final String PERSISTENCE_UNIT = "dcm4chee-arc-performance";
+
+    public static final String RETRIEVE_AETS = "DCM4CHEE";
+
+    private static final int FLUSH_INTERVAL = 200;
+
+    private final FuzzyStr fuzzyStr = new ESoundex();
+
+    private EntityManagerFactory emf;
+
+    private EntityManager em;
+
+    public static EmbeddedDatabase open() {
+        EmbeddedDatabase db = new EmbeddedDatabase();
+        db.emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
+        db.em = db.emf.createEntityManager();
+        return db;
+    }
+
+    public EntityManager getEntityManager() {
+        return em;
+    }
+
+    public Session getSession() {
+        return em.unwrap(Session.class);
+    }
+
+    /**
+     * Persists {@code numberOfPatients} patients with {@code studiesPerPatient}
+     * studies each. Every study consists of one SR series with one instance
+     * and {@code seriesPerStudy - 1} CT series with
+     * {@code instancesPerSeries} instances each.
+     *
+     * @return primary key of the last persisted study
+     */
+    public long populate(int numberOfPatients, int studiesPerPatient,
+            int seriesPerStudy, int instancesPerSeries) {
+        long lastStudyPk = -1L;
+        int pending = 0;
+        em.getTransaction().begin();
+        for (int p = 0; p < numberOfPatients; p++) {
+            Patient patient = new Patient();
+            patient.setAttributes(SyntheticDatasets.patient(p),
+                    SyntheticDatasets.ATTRIBUTE_FILTERS.get(Entity.Patient),
+                    fuzzyStr, null);
+            em.persist(patient);
+            for (int st = 0; st < studiesPerPatient; st++) {
+                Study study = new Study();
+                study.setPatient(patient);
+                study.setAttributes(SyntheticDatasets.study(p, st),
+                        SyntheticDatasets.ATTRIBUTE_FILTERS.get(Entity.Study),
+                        fuzzyStr, null);
+                em.persist(study);
+                for (int se = 0; se < seriesPerStudy; se++) {
+                    Series series = new Series();
+                    series.setStudy(study);
+                    series.setSourceAET("MODALITY");
+                    series.setAttributes(SyntheticDatasets.series(p, st, se),
+                            SyntheticDatasets.ATTRIBUTE_FILTERS.get(Entity.Series),
+                            fuzzyStr, null);
+                    em.persist(series);
+                    int instances = se == 0 ? 1 : instancesPerSeries;
+                    for (int i = 0; i < instances; i++) {
+                        Attributes attrs = SyntheticDatasets.instance(p, st, se, i);
+                        Instance inst = new Instance();
+                        inst.setSeries(series);
+                        inst.setRetrieveAETs(RETRIEVE_AETS);
+                        inst.setAvailability(Availability.ONLINE);
+                        inst.setAttributes(attrs,
+                                SyntheticDatasets.ATTRIBUTE_FILTERS.get(Entity.Instance),
+                                fuzzyStr, null);
+                        em.persist(inst);
+                        if (++pending % FLUSH_INTERVAL == 0) {
+                            em.flush();
+                            em.clear();
+                            // re-attach the parents for the following instances
+                            series = em.merge(series);
+                            study = series.getStudy();
+                            patient = study.getPatient();
+                        }
+                    }
+                }
+                lastStudyPk = study.getPk();
+            }
+        }
+        em.getTransaction().commit();
+        em.clear();
+        return lastStudyPk;
+    }
+
+    @Override
+    public void close() {
+        if (em != null)
+            em.close();
+        if (emf != null)
+            emf.close();
+        em = null;
+        emf = null;
+    }
+}
@@ -0,0 +1,143 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.QStudy;
+import org.dcm4chee.archive.entity.QStudyQueryAttributes;
+import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mysema.query.BooleanBuilder;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.hibernate.HibernateQuery;
+import com.mysema.query.types.Expression;
+
+/**
+ * Measures the construction of C-FIND/QIDO predicates by {@link QueryBuilder}
+ * and the execution of the resulting Study level query against the
+ * {@link EmbeddedDatabase}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBuilderBenchmark {
+
+    private static final Expression<?>[] STUDY_SELECT = {
+        QStudy.study.pk,
+        QStudyQueryAttributes.studyQueryAttributes.numberOfInstances,
+        QStudyQueryAttributes.studyQueryAttributes.modalitiesInStudy,
+        QueryBuilder.studyAttributesBlob.encodedAttributes,
+        QueryBuilder.patientAttributesBlob.encodedAttributes
+    };
+
+    @Param({"1000"})
+    public int numberOfPatients;
+
+    private EmbeddedDatabase db;
+
+    private QueryParam queryParam;
+
+    private Attributes keys;
+
+    @Setup
+    public void setup() {
+        db = EmbeddedDatabase.open();
+        db.populate(numberOfPatients, 2, 2, 1);
+        queryParam = SyntheticDatasets.createQueryParam();
+        keys = new Attributes();
+        keys.setString(Tag.PatientName, VR.PN, "Doe1*");
+        keys.setString(Tag.StudyDate, VR.DA, "20150101-20151231");
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, "CT");
+        keys.setString(Tag.StudyDescription, VR.LO, "CT*");
+        keys.setNull(Tag.AccessionNumber, VR.SH);
+        keys.setNull(Tag.StudyInstanceUID, VR.UI);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public BooleanBuilder buildStudyLevelPredicates() {
+        BooleanBuilder builder = new BooleanBuilder();
+        QueryBuilder.addPatientLevelPredicates(builder, null, keys, queryParam);
+        QueryBuilder.addStudyLevelPredicates(builder, keys, queryParam);
+        return builder;
+    }
+
+    @Benchmark
+    public BooleanBuilder buildInstanceLevelPredicates() {
+        BooleanBuilder builder = buildStudyLevelPredicates();
+        QueryBuilder.addSeriesLevelPredicates(builder, keys, queryParam);
+        QueryBuilder.addInstanceLevelPredicates(builder, keys, queryParam);
+        return builder;
+    }
+
+    @Benchmark
+    public List<Tuple> executeStudyQuery() {
+        HibernateQuery query = new HibernateQuery(db.getSession()).from(QStudy.study);
+        query = QueryBuilder.applyStudyLevelJoins(query, keys, queryParam);
+        query = QueryBuilder.applyPatientLevelJoins(query, keys, queryParam);
+        List<Tuple> result = query.where(buildStudyLevelPredicates()).list(STUDY_SELECT);
+        db.getEntityManager().clear();
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.impl.FileSpooler;
+import org.dcm4chee.archive.store.impl.MemoryOrFileSpooler;
+import org.dcm4chee.archive.store.impl.StoreContextImpl;
+import org.dcm4chee.archive.store.impl.StoreSessionImpl;
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link MemoryOrFileSpooler#spool(StoreContext, boolean)} for
+ * objects below and above the spooling cutoff length, i.e. parsing from the
+ * memory buffer versus spooling to a temporary file first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpoolerBenchmark {
+
+    private static final int SPOOLING_CUTOFF_LENGTH = 1024 * 1024;
+
+    /**
+     * Length of the pixel data of the received object: a CR thumbnail
+     * which is parsed from memory, and a CT slice, which exceeds the cutoff.
+     */
+    @Param({"65536", "4194304"})
+    public int pixelDataLength;
+
+    private MemoryOrFileSpooler spooler;
+
+    private StoreSessionImpl session;
+
+    private Path spoolDirectory;
+
+    private byte[] dataset;
+
+    private Attributes fmi;
+
+    @Setup
+    public void setup() throws Exception {
+        StorageSystem spoolStorage = mock(StorageSystem.class);
+        when(spoolStorage.getSpoolingCutoffLength()).thenReturn(SPOOLING_CUTOFF_LENGTH);
+        when(spoolStorage.getBufferedOutputLength()).thenReturn(8192);
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.createStorageContext(any(StorageSystem.class)))
+                .thenReturn(mock(StorageContext.class));
+
+        FileSpooler fileSpooler = new FileSpooler();
+        inject(fileSpooler, "storageService", storageService);
+        spooler = new MemoryOrFileSpooler();
+        inject(spooler, "storageService", storageService);
+        inject(spooler, "fileSpooler", fileSpooler);
+
+        spoolDirectory = Files.createTempDirectory("dcm4chee-arc-spool");
+        session = new StoreSessionImpl(null);
+        session.setSpoolStorageSystem(spoolStorage);
+        session.setSpoolDirectory(spoolDirectory);
+
+        Attributes attrs = SyntheticDatasets.image(0, pixelDataLength);
+        fmi = attrs.createFileMetaInformation(UID.ExplicitVRLittleEndian);
+        dataset = SyntheticDatasets.encodeDataset(attrs, UID.ExplicitVRLittleEndian);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteSpoolFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(spoolDirectory);
+    }
+
+    @Benchmark
+    public StoreContext spoolAndParse() throws DicomServiceException {
+        StoreContext context = new StoreContextImpl(session);
+        context.setFileMetainfo(fmi);
+        context.setInputStream(new ByteArrayInputStream(dataset));
+        spooler.spool(context, true);
+        return context;
+    }
+
+    private static void inject(Object target, String fieldName, Object value)
+            throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
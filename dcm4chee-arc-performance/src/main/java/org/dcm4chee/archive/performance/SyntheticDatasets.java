@@ -0,0 +1,247 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.conf.Entity;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+
+/**
+ * Factory of synthetic DICOM data sets and configuration objects used by the
+ * benchmarks, so that they run without any external data or configuration.
+ */
+public class SyntheticDatasets {
+
+    public static final String VIEW_ID = "DCM4CHEE";
+
+    private static final String UID_ROOT = "1.2.40.0.13.1.1.99.";
+
+    private static final int[] PATIENT_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.PatientName,
+        Tag.PatientID,
+        Tag.IssuerOfPatientID,
+        Tag.PatientBirthDate,
+        Tag.PatientSex,
+        Tag.OtherPatientIDsSequence,
+        Tag.PatientComments
+    };
+
+    private static final int[] STUDY_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.StudyDate,
+        Tag.StudyTime,
+        Tag.AccessionNumber,
+        Tag.ReferringPhysicianName,
+        Tag.StudyDescription,
+        Tag.StudyInstanceUID,
+        Tag.StudyID
+    };
+
+    private static final int[] SERIES_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.Modality,
+        Tag.Manufacturer,
+        Tag.InstitutionName,
+        Tag.StationName,
+        Tag.SeriesDescription,
+        Tag.BodyPartExamined,
+        Tag.SeriesInstanceUID,
+        Tag.SeriesNumber
+    };
+
+    private static final int[] INSTANCE_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.ImageType,
+        Tag.SOPClassUID,
+        Tag.SOPInstanceUID,
+        Tag.ContentDate,
+        Tag.ContentTime,
+        Tag.InstanceNumber,
+        Tag.NumberOfFrames,
+        Tag.Rows,
+        Tag.Columns,
+        Tag.BitsAllocated,
+        Tag.ImagePositionPatient,
+        Tag.ImageOrientationPatient,
+        Tag.PixelSpacing,
+        Tag.SliceThickness,
+        Tag.WindowCenter,
+        Tag.WindowWidth
+    };
+
+    public static final Map<Entity, AttributeFilter> ATTRIBUTE_FILTERS;
+
+    static {
+        ATTRIBUTE_FILTERS = new HashMap<>();
+        ATTRIBUTE_FILTERS.put(Entity.Patient, new AttributeFilter(PATIENT_ATTRS));
+        ATTRIBUTE_FILTERS.put(Entity.Study, new AttributeFilter(STUDY_ATTRS));
+        ATTRIBUTE_FILTERS.put(Entity.Series, new AttributeFilter(SERIES_ATTRS));
+        ATTRIBUTE_FILTERS.put(Entity.Instance, new AttributeFilter(INSTANCE_ATTRS));
+    }
+
+    private SyntheticDatasets() {
+    }
+
+    public static String uid(String type, int... numbers) {
+        StringBuilder sb = new StringBuilder(UID_ROOT).append(type);
+        for (int number : numbers)
+            sb.append('.').append(number);
+        return sb.toString();
+    }
+
+    public static QueryParam createQueryParam() {
+        QueryParam queryParam = new QueryParam();
+        queryParam.setAttributeFilters(ATTRIBUTE_FILTERS);
+        queryParam.setFuzzyStr(new ESoundex());
+        queryParam.setMatchUnknown(true);
+        QueryRetrieveView queryRetrieveView = new QueryRetrieveView();
+        queryRetrieveView.setViewID(VIEW_ID);
+        queryRetrieveView.setHideNotRejectedInstances(false);
+        queryParam.setQueryRetrieveView(queryRetrieveView);
+        return queryParam;
+    }
+
+    public static Attributes patient(int patientNo) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.PatientName, VR.PN, "Doe" + patientNo + "^John^Q");
+        attrs.setString(Tag.PatientID, VR.LO, "PID" + patientNo);
+        attrs.setString(Tag.IssuerOfPatientID, VR.LO, "PERF");
+        attrs.setString(Tag.PatientBirthDate, VR.DA, "19700101");
+        attrs.setString(Tag.PatientSex, VR.CS, (patientNo & 1) == 0 ? "M" : "F");
+        attrs.setString(Tag.PatientComments, VR.LT, "synthetic patient for benchmarks");
+        return attrs;
+    }
+
+    public static Attributes study(int patientNo, int studyNo) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, uid("1", patientNo, studyNo));
+        attrs.setString(Tag.StudyDate, VR.DA, String.format("2015%02d%02d", 1 + studyNo % 12, 1 + studyNo % 28));
+        attrs.setString(Tag.StudyTime, VR.TM, "101010");
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A" + patientNo + "-" + studyNo);
+        attrs.setString(Tag.ReferringPhysicianName, VR.PN, "Referrer^Rita");
+        attrs.setString(Tag.StudyDescription, VR.LO, "CT CHEST WITH CONTRAST");
+        attrs.setString(Tag.StudyID, VR.SH, String.valueOf(studyNo));
+        return attrs;
+    }
+
+    public static Attributes series(int patientNo, int studyNo, int seriesNo) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, uid("2", patientNo, studyNo, seriesNo));
+        attrs.setString(Tag.Modality, VR.CS, seriesNo == 0 ? "SR" : "CT");
+        attrs.setString(Tag.Manufacturer, VR.LO, "ACME");
+        attrs.setString(Tag.InstitutionName, VR.LO, "General Hospital");
+        attrs.setString(Tag.StationName, VR.SH, "CT01");
+        attrs.setString(Tag.SeriesDescription, VR.LO, "AXIAL 1.0");
+        attrs.setString(Tag.BodyPartExamined, VR.CS, "CHEST");
+        attrs.setInt(Tag.SeriesNumber, VR.IS, seriesNo + 1);
+        return attrs;
+    }
+
+    public static Attributes instance(int patientNo, int studyNo, int seriesNo, int instanceNo) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.CTImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, uid("3", patientNo, studyNo, seriesNo, instanceNo));
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL");
+        attrs.setString(Tag.ContentDate, VR.DA, "20150101");
+        attrs.setString(Tag.ContentTime, VR.TM, "101010");
+        attrs.setInt(Tag.InstanceNumber, VR.IS, instanceNo + 1);
+        attrs.setInt(Tag.NumberOfFrames, VR.IS, 1);
+        attrs.setInt(Tag.Rows, VR.US, 512);
+        attrs.setInt(Tag.Columns, VR.US, 512);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 16);
+        attrs.setDouble(Tag.ImagePositionPatient, VR.DS, -250.0, -250.0, instanceNo * 1.0);
+        attrs.setDouble(Tag.ImageOrientationPatient, VR.DS, 1, 0, 0, 0, 1, 0);
+        attrs.setDouble(Tag.PixelSpacing, VR.DS, 0.976, 0.976);
+        attrs.setDouble(Tag.SliceThickness, VR.DS, 1.0);
+        attrs.setDouble(Tag.WindowCenter, VR.DS, 40.0);
+        attrs.setDouble(Tag.WindowWidth, VR.DS, 400.0);
+        return attrs;
+    }
+
+    /**
+     * Composes a complete image data set with all patient, study, series and
+     * instance level attributes plus a (constant) pixel data element of the
+     * given length.
+     */
+    public static Attributes image(int instanceNo, int pixelDataLength) {
+        Attributes attrs = new Attributes();
+        attrs.addAll(patient(0));
+        attrs.addAll(study(0, 0));
+        attrs.addAll(series(0, 0, 1));
+        attrs.addAll(instance(0, 0, 1, instanceNo));
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        attrs.setInt(Tag.BitsStored, VR.US, 12);
+        attrs.setInt(Tag.HighBit, VR.US, 11);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        attrs.setBytes(Tag.PixelData, VR.OW, new byte[pixelDataLength]);
+        return attrs;
+    }
+
+    /**
+     * Encodes the given data set with the passed transfer syntax, without
+     * File Meta Information, as it is received in P-DATA-TF PDUs.
+     */
+    public static byte[] encodeDataset(Attributes attrs, String tsuid) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DicomOutputStream dos = new DicomOutputStream(out, tsuid)) {
+            dos.writeDataset(null, attrs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.performance;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4chee.archive.conf.WeightWatcherConfiguration;
+import org.dcm4chee.archive.task.impl.WeightWatcherImpl;
+import org.dcm4chee.task.MemoryConsumingTask;
+import org.dcm4chee.task.TaskType;
+import org.dcm4chee.task.WeightWatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of {@link WeightWatcherImpl#execute} under
+ * contention: 8 threads compete for fewer concurrent task slots, so the
+ * benchmark is dominated by the queuing and wake up of blocked tasks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class WeightWatcherBenchmark {
+
+    private static final long TOTAL_SYSTEM_MEMORY = 1024L * 1024 * 1024;
+
+    private enum BenchmarkTaskType implements TaskType {
+        RENDER, COMPRESS
+    }
+
+    /**
+     * Number of tasks allowed to run concurrently.
+     */
+    @Param({"2", "8"})
+    public int totalConcurrentTasksLimit;
+
+    /**
+     * CPU work performed by each task, in {@link Blackhole#consumeCPU} tokens.
+     */
+    @Param({"100", "10000"})
+    public long tokens;
+
+    private WeightWatcher weightWatcher;
+
+    @Setup
+    public void setup() {
+        WeightWatcherConfiguration config = new WeightWatcherConfiguration();
+        config.setMemoryUsageFactor(0.5);
+        config.setTotalConcurrentTasksLimit(totalConcurrentTasksLimit);
+        weightWatcher = new WeightWatcherImpl(config, TOTAL_SYSTEM_MEMORY);
+    }
+
+    @Benchmark
+    public Long executeSameType() throws Exception {
+        return weightWatcher.execute(new Task(BenchmarkTaskType.RENDER, 16L * 1024 * 1024, tokens));
+    }
+
+    @Benchmark
+    public Long executeLargeTasks() throws Exception {
+        // every task claims a quarter of the usable memory
+        return weightWatcher.execute(new Task(BenchmarkTaskType.COMPRESS, TOTAL_SYSTEM_MEMORY / 8, tokens));
+    }
+
+    private static class Task implements MemoryConsumingTask<Long> {
+
+        private final TaskType taskType;
+        private final long estimatedWeight;
+        private final long tokens;
+
+        Task(TaskType taskType, long estimatedWeight, long tokens) {
+            this.taskType = taskType;
+            this.estimatedWeight = estimatedWeight;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public TaskType getTaskType() {
+            return taskType;
+        }
+
+        @Override
+        public long getEstimatedWeight() {
+            return estimatedWeight;
+        }
+
+        @Override
+        public Long call() throws Exception {
+            Blackhole.consumeCPU(tokens);
+            return tokens;
+        }
+    }
+}
@@ -47,7 +47,13 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import javax.json.Json;
 import javax.ws.rs.core.MediaType;
@@ -71,6 +77,10 @@ public class QidoClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(QidoClient.class);
 
+    private static final int MAX_UIDS_PER_REQUEST = 50;
+
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+
     private QidoContext context;
 
     public QidoClient(QidoContext context) {
@@ -79,65 +89,145 @@ public class QidoClient {
     }
 
     public QidoResponse verifyStorage(Collection<String> sopInstanceUIDs) {
-        HashMap<String, Availability> result = new HashMap<String, Availability>();
-        ArchiveAEExtension aeExt = context.getArchiveAEExtension();
-        String aeTitle = context.getRemoteAE().getAETitle();
-        String url = adjustToQidoURL(aeTitle, context.getRemoteBaseURL());
+        final HashMap<String, Availability> result = new HashMap<String, Availability>();
+        final ArchiveAEExtension aeExt = context.getArchiveAEExtension();
+        final String aeTitle = context.getRemoteAE().getAETitle();
+        final String url = adjustToQidoURL(aeTitle, context.getRemoteBaseURL());
         if(aeExt == null) {
             throw new IllegalArgumentException("ArchiveAEExtension "
                     + "not initialized in context");
         }
-        MediaType type = MediaType.valueOf(aeExt.getQidoClientAcceptType() 
+        final MediaType type = MediaType.valueOf(aeExt.getQidoClientAcceptType() 
                 !=null ? aeExt.getQidoClientAcceptType(): "application/json");
-        
+
+        final ConcurrentLinkedQueue<List<String>> batches =
+                new ConcurrentLinkedQueue<List<String>>();
+        List<String> batch = null;
         for (String sopiuid : sopInstanceUIDs) {
-            Availability externalAvailability = queryOverWebService(aeTitle
-                    , url, sopiuid , context.isFuzzyMatching(),context
-                    .isTimeZoneAdjustment(), type); 
-                result.put(sopiuid, externalAvailability);
+            if (batch == null || batch.size() == MAX_UIDS_PER_REQUEST) {
+                batch = new ArrayList<String>(MAX_UIDS_PER_REQUEST);
+                batches.add(batch);
+            }
+            batch.add(sopiuid);
         }
-        
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                List<String> batch;
+                while ((batch = batches.poll()) != null) {
+                    Map<String, Availability> verified =
+                            verifyBatch(aeTitle, url, batch, type);
+                    synchronized (result) {
+                        result.putAll(verified);
+                    }
+                }
+            }
+        };
+        int parallel = Math.min(batches.size(), MAX_PARALLEL_REQUESTS);
+        Executor executor = context.getLocalAE().getDevice().getExecutor();
+        List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>(parallel);
+        for (int i = 1; i < parallel; i++) {
+            FutureTask<Void> task = new FutureTask<Void>(worker, null);
+            executor.execute(task);
+            workers.add(task);
+        }
+        worker.run();
+        for (FutureTask<Void> task : workers) {
+            try {
+                task.get();
+            } catch (Exception e) {
+                LOG.error("QIDO verification worker failed", e);
+            }
+        }
+
         return new QidoResponse(this.context.getTransactionID()
                 , result);
     }
 
-    private Availability queryOverWebService(String aeTitle, String url
-            , String sopUID, boolean fuzzyMatching, boolean timeZoneAdjustment
+    /**
+     * Queries the availability of all instances of the batch by one request
+     * with the SOP Instance UIDs as UID list and falls back to one request
+     * per instance for instances not returned by the first request.
+     */
+    private Map<String, Availability> verifyBatch(String aeTitle, String url,
+            List<String> sopUIDs, MediaType type) {
+        Map<String, Availability> result = new HashMap<String, Availability>();
+        if (sopUIDs.size() > 1) {
+            for (Attributes match : queryOverWebService(aeTitle, url, sopUIDs,
+                    context.isFuzzyMatching(), context.isTimeZoneAdjustment(), type)) {
+                String sopUID = match.getString(Tag.SOPInstanceUID);
+                if (sopUID != null && sopUIDs.contains(sopUID))
+                    result.put(sopUID, availabilityOf(match));
+            }
+        }
+        for (String sopUID : sopUIDs) {
+            if (!result.containsKey(sopUID)) {
+                List<Attributes> matches = queryOverWebService(aeTitle, url,
+                        Collections.singletonList(sopUID), context.isFuzzyMatching(),
+                        context.isTimeZoneAdjustment(), type);
+                result.put(sopUID, matches.isEmpty()
+                        ? Availability.UNAVAILABLE
+                        : availabilityOf(matches.get(0)));
+            }
+        }
+        return result;
+    }
+
+    private static Availability availabilityOf(Attributes match) {
+        String availability = match.getString(Tag.InstanceAvailability);
+        return availability != null
+                ? Availability.valueOf(availability)
+                : Availability.UNAVAILABLE;
+    }
+
+    /**
+     * The connection is not disconnected after the response was read
+     * completely, so it is kept alive and reused by the next request to the
+     * same host.
+     */
+    private List<Attributes> queryOverWebService(String aeTitle, String url
+            , List<String> sopUIDs, boolean fuzzyMatching, boolean timeZoneAdjustment
             , MediaType type) {
         HttpURLConnection connection = null;
-        Availability externalAvaility = Availability.UNAVAILABLE;
         try {
-            url+="?SOPInstanceUID=" + sopUID;
-            
+            StringBuilder sb = new StringBuilder(url);
+            char delim = '?';
+            for (String sopUID : sopUIDs) {
+                sb.append(delim).append("SOPInstanceUID=").append(sopUID);
+                delim = '&';
+            }
             if(timeZoneAdjustment)
-                url+="&timezoneadjustment=true";
+                sb.append("&timezoneadjustment=true");
             if(fuzzyMatching)
-                url+="&fuzzymatching=true";
+                sb.append("&fuzzymatching=true");
             
-            URL qidoURL = new URL(url);
+            URL qidoURL = new URL(sb.toString());
             
             connection = setUpQidoConnection(qidoURL, type);
             
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NO_CONTENT) {
+                SafeClose.close(connection.getInputStream());
+                return Collections.emptyList();
+            }
+
             InputStream in = connection.getInputStream();
             
                 if(type.isCompatible(MediaType.APPLICATION_JSON_TYPE))
-                    externalAvaility = readJSON(in);
+                    return readJSON(in);
                 else
-                    externalAvaility = readXML(in);
+                    return readXML(in);
             
-        } catch (IOException e) {
-            LOG.error("Error writing to http data output stream"
-                    + e.getStackTrace().toString());
-            return Availability.UNAVAILABLE;
+        } catch (Exception e) {
+            LOG.error("Error querying availability of {} instances from {}",
+                    sopUIDs.size(), url, e);
+            if (connection != null)
+                connection.disconnect();
+            return Collections.emptyList();
         }
-        finally {
-            connection.disconnect();
-        }
-        
-        return externalAvaility;
     }
 
-    private Availability readXML(InputStream in) {
+    private List<Attributes> readXML(InputStream in) {
         String full="";
         String str;
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
@@ -158,35 +248,27 @@ public class QidoClient {
                 LOG.error("Failed to close Stream {}", e);
             }
         }
+        List<Attributes> matches = new ArrayList<Attributes>();
+        if (boundary == null)
+            return matches;
         String[] parts = full.split(boundary);
-        Attributes attrs = new Attributes();
         
         for(int i=0;i<parts.length-1;i++) {
                 try {
-                    attrs = SAXReader.parse(new ByteArrayInputStream(removeXMLHeader(parts[i]).getBytes()));
+                    matches.add(SAXReader.parse(new ByteArrayInputStream(
+                            removeXMLHeader(parts[i]).getBytes())));
                 } catch (Exception e) {
                     LOG.error("Error while parsing XML stream", e);
                 }
-                if(attrs.getString(Tag.InstanceAvailability) != null)
-                    return Availability.valueOf(attrs.getString(
-                            Tag.InstanceAvailability));
         }
-        return Availability.UNAVAILABLE;
+        return matches;
     }
 
-    private Availability readJSON(InputStream in) {
+    private List<Attributes> readJSON(InputStream in) {
+        final ArrayList<Attributes> attrs = new ArrayList<Attributes>();
         try {
-            JSONReader reader = null;
-            
-            try {
-                reader = new JSONReader(
-                        Json.createParser(new InputStreamReader(in, "UTF-8")));
-            } catch (UnsupportedEncodingException e) {
-                LOG.error("Unsupported encoding exception"
-                        + " while parsing json stream", e);
-            }
-            
-            final ArrayList<Attributes> attrs = new ArrayList<Attributes>();
+            JSONReader reader = new JSONReader(
+                    Json.createParser(new InputStreamReader(in, "UTF-8")));
             
             reader.readDatasets(new Callback() {
                 
@@ -195,17 +277,15 @@ public class QidoClient {
                     attrs.add(dataset);
                 }
             });
-            if(attrs.get(0).getString(Tag.InstanceAvailability) != null)
-                return Availability.valueOf(attrs.get(0).getString(
-                        Tag.InstanceAvailability));
+        } catch (UnsupportedEncodingException e) {
+            LOG.error("Unsupported encoding exception"
+                    + " while parsing json stream", e);
         } finally {
                 SafeClose.close(in);
         }
-        return Availability.UNAVAILABLE;
+        return attrs;
     }
 
-
-
     private HttpURLConnection setUpQidoConnection(URL url , MediaType type) 
             throws IOException{
             HttpURLConnection connection = (HttpURLConnection) url
@@ -45,6 +45,8 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
@@ -57,6 +59,7 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
@@ -104,10 +107,13 @@ import com.mysema.query.types.path.StringPath;
  * @author Umberto Cappellini <umberto.cappellini@agfa.com>
  * @author Alessio Roselli <alessio.roselli@agfa.com>
  */
+@RequestScoped
 public class DefaultQidoRS implements QidoRS {
 
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
+    // flush after the first match and every 100 matches afterwards
+    private static final int JSON_FLUSH_INTERVAL = 100;
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultQidoRS.class);
 
@@ -153,6 +159,9 @@ public class DefaultQidoRS implements QidoRS {
     
     private QueryContext queryContext;
 
+    // query of a streaming entity, which is closed after it was written
+    private Query streamingQuery;
+
     @Inject
     private Device device;
 
@@ -192,8 +201,19 @@ public class DefaultQidoRS implements QidoRS {
     @javax.ws.rs.QueryParam("orderby")
     private List<String> orderby;
 
+    /**
+     * Opaque token for keyset pagination, which avoids counting the matches
+     * and skipping <code>offset</code> rows for each page. An empty value
+     * requests the first page; the URI of the following page is returned in
+     * a <code>Link</code> header with <code>rel="next"</code>.
+     */
+    @javax.ws.rs.QueryParam("continuationtoken")
+    private String continuationtoken;
+
     private OrderSpecifier<?>[] orderSpecifiers;
 
+    private Long seekKey;
+
     private final Attributes keys = new Attributes(64);
 
     private String method;
@@ -315,25 +335,32 @@ public class DefaultQidoRS implements QidoRS {
                 includetags);
 
         Query query = QueryServiceUtils.createQuery(queryService, qrlevel, queryContext);
+        boolean closeQuery = true;
         try {
             query.initQuery();
             int status = STATUS_OK;
             int maxResults = arcAE.getQIDOMaxNumberOfResults();
-            int offset = Math.max(this.offset, 0);
             int limit = Math.max(this.limit, 0);
-            if (maxResults > 0 && (limit == 0 || limit >  maxResults)) {
-                int numResults = (int) (query.count() - offset);
-                if (numResults == 0)
-                    return Response.ok().build();
-    
-                if (numResults > maxResults) {
+            if (continuationtoken != null) {
+                query.seekAfter(seekKey);
+                if (maxResults > 0 && (limit == 0 || limit > maxResults))
                     limit = maxResults;
-                    status = STATUS_PARTIAL_CONTENT;
+            } else {
+                int offset = Math.max(this.offset, 0);
+                if (maxResults > 0 && (limit == 0 || limit >  maxResults)) {
+                    int numResults = (int) (query.count() - offset);
+                    if (numResults == 0)
+                        return Response.ok().build();
+        
+                    if (numResults > maxResults) {
+                        limit = maxResults;
+                        status = STATUS_PARTIAL_CONTENT;
+                    }
                 }
+                if (offset > 0)
+                    query.offset(offset);
             }
-            if (offset > 0)
-                query.offset(offset);
-            
+
             if (limit > 0)
                 query.limit(limit);
     
@@ -343,10 +370,38 @@ public class DefaultQidoRS implements QidoRS {
             query.executeQuery();
             if (!query.hasMoreMatches())
                 return Response.ok().build();
+
+            Long nextSeekKey = query.nextSeekKey();
+            if (nextSeekKey != null)
+                status = STATUS_PARTIAL_CONTENT;
     
-            return Response.status(status).entity(
-                    output.entity(this, query, qrlevel)).build();
+            ResponseBuilder builder = Response.status(status).entity(
+                    output.entity(this, query, qrlevel));
+            if (nextSeekKey != null)
+                builder.header("Link", nextPageLink(nextSeekKey));
+            Response response = builder.build();
+            // a streaming entity fetches the matches and closes the query on write
+            if (output.isStreaming()) {
+                streamingQuery = query;
+                closeQuery = false;
+            }
+            return response;
         } finally {
+            if (closeQuery)
+                query.close();
+        }
+    }
+
+    /**
+     * Closes the query of a streaming entity, which was not written, e.g.
+     * because the request failed or the client disconnected before.
+     */
+    @PreDestroy
+    public void closeStreamingQuery() {
+        Query query = streamingQuery;
+        if (query != null) {
+            streamingQuery = null;
+            LOG.debug("{}: close query on request completion", method);
             query.close();
         }
     }
@@ -411,6 +466,7 @@ public class DefaultQidoRS implements QidoRS {
             LOG.debug("{}: Querykeys:\n{}", method, keys);
             
             parseOrderby(qrlevel);
+            parseContinuationToken();
             
         } catch (IllegalArgumentException e) {
             throw new WebApplicationException(e, Status.BAD_REQUEST);
@@ -444,6 +500,8 @@ public class DefaultQidoRS implements QidoRS {
 
     private static boolean isDicomAttribute(String name) {
         switch (name.charAt(0)) {
+        case 'c':
+            return !name.equals("continuationtoken");
         case 'd':
             return !name.equals("datetimematching");
         case 'f':
@@ -504,6 +562,34 @@ public class DefaultQidoRS implements QidoRS {
         orderSpecifiers = list.toArray(new OrderSpecifier<?>[list.size()]);
     }
 
+    private void parseContinuationToken() {
+        if (continuationtoken == null)
+            return;
+
+        if (offset != 0)
+            throw new IllegalArgumentException(
+                    "continuationtoken cannot be combined with offset");
+        if (continuationtoken.isEmpty())
+            return;
+
+        if (orderSpecifiers != null)
+            throw new IllegalArgumentException(
+                    "continuationtoken cannot be combined with orderby");
+        try {
+            seekKey = Long.parseLong(continuationtoken, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "continuationtoken=" + continuationtoken);
+        }
+    }
+
+    private String nextPageLink(long nextSeekKey) {
+        return "<" + uriInfo.getRequestUriBuilder()
+                .replaceQueryParam("continuationtoken",
+                        Long.toString(nextSeekKey, Character.MAX_RADIX))
+                .build() + ">; rel=\"next\"";
+    }
+
     private void parseDicomAttribute(String attrPath, List<String> values) {
         try {
             int[] tagPath = parseTagPath(attrPath);
@@ -563,9 +649,18 @@ public class DefaultQidoRS implements QidoRS {
             Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel) {
                 return service.writeJSON(query, qrlevel);
             }
+
+            @Override
+            boolean isStreaming() {
+                return true;
+            }
         };
         
         abstract Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel);
+
+        boolean isStreaming() {
+            return false;
+        }
     }
 
     private Object writeXML(Query query, QueryRetrieveLevel qrlevel) {
@@ -594,34 +689,37 @@ public class DefaultQidoRS implements QidoRS {
         return output;
     }
 
-    private Object writeJSON(Query query, QueryRetrieveLevel qrlevel) {
-        final ArrayList<Attributes> matches = new ArrayList<Attributes>();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            matches.add(match);
-        }
-        LOG.info("{}: {} Matches", method, count);
+    /**
+     * Fetches the matches while writing them, so only one match is held in
+     * memory. Closes the query after the last match was written.
+     */
+    private Object writeJSON(final Query query, final QueryRetrieveLevel qrlevel) {
         StreamingOutput output = new StreamingOutput(){
 
             @Override
             public void write(OutputStream out) throws IOException {
+                int count = 0;
                 try {
                     JsonGenerator gen = Json.createGenerator(out);
                     JSONWriter writer = new JSONWriter(gen);
                     gen.writeStartArray();
-                    for (int i = 0, n=matches.size(); i < n; i++) {
-                            Attributes match = matches.get(i);
-                            writer.write(match);
+                    while (query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        writer.write(match);
+                        if (count % JSON_FLUSH_INTERVAL == 1)
+                            gen.flush();
                     }
                     gen.writeEnd();
                     gen.flush();
                 } catch (Exception e) {
                     throw new WebApplicationException(e);
+                } finally {
+                    closeStreamingQuery();
+                    LOG.info("{}: {} Matches", method, count);
                 }
             }
         };
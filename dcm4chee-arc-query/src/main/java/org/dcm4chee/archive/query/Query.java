@@ -60,6 +60,26 @@ public interface Query {
 
     void orderBy(OrderSpecifier<?>... orderSpecifiers);
 
+    /**
+     * Switches to keyset pagination: the matches are ordered by the primary
+     * key of the queried entity and only matches with a key greater than
+     * <code>lastKey</code> are returned. Has to be invoked before
+     * {@link #limit(long)}; replaces {@link #offset(long)}, so no rows have
+     * to be skipped by the database to fetch a following page.
+     * 
+     * @param lastKey
+     *            key returned by {@link #nextSeekKey()} of the query of the
+     *            previous page or <code>null</code> for the first page
+     */
+    void seekAfter(Long lastKey);
+
+    /**
+     * Returns the key to pass to {@link #seekAfter(Long)} to fetch the
+     * following page, or <code>null</code> if there are no further matches
+     * or the query was not limited.
+     */
+    Long nextSeekKey();
+
     boolean optionalKeysNotSupported();
 
     boolean hasMoreMatches();
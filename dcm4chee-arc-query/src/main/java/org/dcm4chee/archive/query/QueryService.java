@@ -90,4 +90,12 @@ public interface QueryService {
     SeriesQueryAttributes createSeriesView(Long seriesPk, QueryParam queryParam);
 
     void calculateDerivedFields(Study study, ApplicationEntity ae);
+
+    /**
+     * Initializes the Number of Frames of instances stored by a previous
+     * version of the archive, which did not yet maintain that column.
+     *
+     * @return number of updated instances
+     */
+    int updateNumberOfFrames();
 }
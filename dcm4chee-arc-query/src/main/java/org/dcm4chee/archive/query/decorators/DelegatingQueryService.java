@@ -90,4 +90,9 @@ public class DelegatingQueryService extends DelegatingServiceImpl<QueryService>
 	public void calculateDerivedFields(Study study, ApplicationEntity ae) {
 		getNextDecorator().calculateDerivedFields(study, ae);
 	}
+
+	@Override
+	public int updateNumberOfFrames() {
+		return getNextDecorator().updateNumberOfFrames();
+	}
 }
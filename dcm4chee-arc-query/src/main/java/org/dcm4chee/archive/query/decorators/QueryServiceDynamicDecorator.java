@@ -96,4 +96,9 @@ public class QueryServiceDynamicDecorator extends DynamicDecoratorWrapper<QueryS
 	public void calculateDerivedFields(Study study, ApplicationEntity ae) {
 		wrapWithDynamicDecorators(delegate).calculateDerivedFields(study, ae);
 	}
+
+	@Override
+	public int updateNumberOfFrames() {
+		return wrapWithDynamicDecorators(delegate).updateNumberOfFrames();
+	}
 }
@@ -52,6 +52,7 @@ import com.mysema.query.types.EntityPath;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.OrderSpecifier;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -73,6 +74,16 @@ public abstract class AbstractQuery<E> implements Query {
 
     private final EntityPath<E> entityPath;
 
+    private boolean seek;
+
+    private long limit;
+
+    private int keyIndex;
+
+    private Long nextSeekKey;
+
+    private long numberOfMatches;
+
     public AbstractQuery(QueryContext context, StatelessSession session,
             EntityPath<E> entityPath) {
         this.context = context;
@@ -94,6 +105,12 @@ public abstract class AbstractQuery<E> implements Query {
 
     protected abstract Expression<?>[] select();
 
+    /**
+     * Primary key of the queried entity, used as seek key by keyset
+     * pagination.
+     */
+    protected abstract NumberPath<Long> pk();
+
     protected abstract HibernateQuery applyJoins(HibernateQuery q);
 
     protected abstract Predicate predicate();
@@ -102,10 +119,30 @@ public abstract class AbstractQuery<E> implements Query {
 
     @Override
     public void executeQuery() {
-        results = query.scroll(ScrollMode.SCROLL_SENSITIVE, select());
+        if (!seek) {
+            results = query.scroll(ScrollMode.SCROLL_SENSITIVE, select());
+            hasMoreMatches = results.next();
+            return;
+        }
+        results = query.scroll(ScrollMode.SCROLL_SENSITIVE, selectWithKey());
+        // one more row than requested was fetched to detect a following page
+        if (limit > 0 && results.setRowNumber((int) limit)) {
+            results.previous();
+            nextSeekKey = results.getLong(keyIndex);
+            results.beforeFirst();
+        }
         hasMoreMatches = results.next();
     }
 
+    private Expression<?>[] selectWithKey() {
+        Expression<?>[] select = select();
+        Expression<?>[] selectWithKey = new Expression<?>[select.length + 1];
+        System.arraycopy(select, 0, selectWithKey, 0, select.length);
+        keyIndex = select.length;
+        selectWithKey[keyIndex] = pk();
+        return selectWithKey;
+    }
+
     @Override
     public long count() {
         checkQuery();
@@ -115,7 +152,8 @@ public abstract class AbstractQuery<E> implements Query {
     @Override
     public void limit(long limit) {
         checkQuery();
-        query.limit(limit);
+        this.limit = limit;
+        query.limit(seek ? limit + 1 : limit);
     }
 
     @Override
@@ -130,6 +168,24 @@ public abstract class AbstractQuery<E> implements Query {
         query.orderBy(orderSpecifiers);
     }
 
+    @Override
+    public void seekAfter(Long lastKey) {
+        checkQuery();
+        if (seek)
+            throw new IllegalStateException("seek already set");
+        if (limit > 0)
+            throw new IllegalStateException("seek has to be set before limit");
+        seek = true;
+        if (lastKey != null)
+            query.where(pk().gt(lastKey));
+        query.orderBy(pk().asc());
+    }
+
+    @Override
+    public Long nextSeekKey() {
+        return nextSeekKey;
+    }
+
     @Override
     public boolean optionalKeysNotSupported() {
         return optionalKeyNotSupported;
@@ -145,7 +201,8 @@ public abstract class AbstractQuery<E> implements Query {
         if (!hasMoreMatches)
             throw new NoSuchElementException();
         Attributes attrs = toAttributes(results, context);
-        hasMoreMatches = results.next();
+        hasMoreMatches = !(seek && limit > 0 && ++numberOfMatches >= limit)
+                && results.next();
         return attrs;
     }
 
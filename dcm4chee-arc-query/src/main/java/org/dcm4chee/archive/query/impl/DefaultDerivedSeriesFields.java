@@ -40,12 +40,10 @@ package org.dcm4chee.archive.query.impl;
 
 import com.mysema.query.Tuple;
 import com.mysema.query.types.Expression;
-import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
-import org.dcm4chee.archive.entity.AttributesBlob;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.DerivedSeriesFields;
@@ -78,7 +76,7 @@ public class DefaultDerivedSeriesFields implements DerivedSeriesFields {
                 QInstance.instance.retrieveAETs,
                 QInstance.instance.availability,
                 QInstance.instance.updatedTime,
-                QInstance.instance.attributesBlob,
+                QInstance.instance.numberOfFrames,
                 QInstance.instance.sopClassUID
         };
     }
@@ -129,12 +127,11 @@ public class DefaultDerivedSeriesFields implements DerivedSeriesFields {
         if (lastUpdateTime == null || instanceUpdateTime.after(lastUpdateTime))
             lastUpdateTime = instanceUpdateTime;
 
-        AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
         String sopClass = result.get(QInstance.instance.sopClassUID);
 
         if (device.getDeviceExtension(ArchiveDeviceExtension.class).isVisibleSOPClass(sopClass)) {
-            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
-            numberOfVisibleImages += numberOfVisibleImagesInInstance;
+            Integer numberOfFrames = result.get(QInstance.instance.numberOfFrames);
+            numberOfVisibleImages += numberOfFrames != null ? numberOfFrames : 1;
         }
     }
 
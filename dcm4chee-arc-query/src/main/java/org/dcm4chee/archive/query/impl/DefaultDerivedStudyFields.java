@@ -40,12 +40,10 @@ package org.dcm4chee.archive.query.impl;
 
 import com.mysema.query.Tuple;
 import com.mysema.query.types.Expression;
-import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
-import org.dcm4chee.archive.entity.AttributesBlob;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.Utils;
@@ -89,7 +87,7 @@ public class DefaultDerivedStudyFields implements DerivedStudyFields {
                 QInstance.instance.retrieveAETs,
                 QInstance.instance.availability,
                 QInstance.instance.updatedTime,
-                QInstance.instance.attributesBlob,
+                QInstance.instance.numberOfFrames,
                 QSeries.series.seriesInstanceUID
         };
     }
@@ -170,10 +168,9 @@ public class DefaultDerivedStudyFields implements DerivedStudyFields {
 
         if (device.getDeviceExtension(ArchiveDeviceExtension.class).isVisibleSOPClass(sopClass)) {
             String seriesUID = result.get(QSeries.series.seriesInstanceUID);
-            AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
             visibleSeriesUIDs.add(seriesUID);
-            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
-            numberOfVisibleImages += numberOfVisibleImagesInInstance;
+            Integer numberOfFrames = result.get(QInstance.instance.numberOfFrames);
+            numberOfVisibleImages += numberOfFrames != null ? numberOfFrames : 1;
         }
     }
 
@@ -79,6 +79,8 @@ public class DefaultQueryService implements QueryService {
 
     private static Logger LOG = LoggerFactory.getLogger(DefaultQueryService.class);
 
+    private static final int UPDATE_NUMBER_OF_FRAMES_BATCH_SIZE = 500;
+
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     private EntityManager em;
 
@@ -260,4 +262,15 @@ public class DefaultQueryService implements QueryService {
             LOG.error("Error while calculating derived fields on MPPS COMPLETE", e);
         }
     }
+
+    @Override
+    public int updateNumberOfFrames() {
+        int total = 0;
+        int updated;
+        while ((updated = ejb.updateNumberOfFrames(UPDATE_NUMBER_OF_FRAMES_BATCH_SIZE)) > 0) {
+            total += updated;
+            LOG.info("Initialized Number of Frames of {} instances", total);
+        }
+        return total;
+    }
 }
@@ -90,6 +90,16 @@ public class EmptyQuery implements Query {
         // empty
     }
 
+    @Override
+    public void seekAfter(Long lastKey) {
+        // empty
+    }
+
+    @Override
+    public Long nextSeekKey() {
+        return null;
+    }
+
     @Override
     public boolean optionalKeysNotSupported() {
         return false;
@@ -53,6 +53,7 @@ import com.mysema.query.BooleanBuilder;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -78,6 +79,11 @@ class InstanceQuery extends AbstractQuery<Instance> {
         return SELECT;
     }
 
+    @Override
+    protected NumberPath<Long> pk() {
+        return QInstance.instance.pk;
+    }
+
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
         query = QueryBuilder.applyInstanceLevelJoins(query,
@@ -38,7 +38,11 @@
 
 package org.dcm4chee.archive.query.impl;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.ejb.EJB;
 import javax.ejb.EJBTransactionRolledbackException;
@@ -51,9 +55,12 @@ import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.BlobCorruptedException;
+import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QSeries;
@@ -240,6 +247,9 @@ public class QueryServiceEJB {
 
         long calculatedForVersion = study.getVersion();
 
+        // calculate the derived fields of the series within the same pass, so
+        // the study query attributes can be maintained incrementally on store
+        HashMap<Long, DerivedSeriesFields> seriesDerivedFields = new HashMap<Long, DerivedSeriesFields>();
         try (
             CloseableIterator<Tuple> results = queryFactory.query(
                     em.unwrap(Session.class))
@@ -249,18 +259,33 @@ public class QueryServiceEJB {
                         QSeries.series.study.pk.eq(studyPk), queryParam))
                 .iterate(studyDerivedFields.fields())) {
             while (results.hasNext()) {
-                studyDerivedFields.addInstance(results.next(), queryParam);
+                Tuple result = results.next();
+                studyDerivedFields.addInstance(result, queryParam);
+                Long seriesPk = result.get(QSeries.series.pk);
+                DerivedSeriesFields derivedFields = seriesDerivedFields.get(seriesPk);
+                if (derivedFields == null)
+                    seriesDerivedFields.put(seriesPk, derivedFields = new DefaultDerivedSeriesFields(device));
+                derivedFields.addInstance(result, queryParam);
             }
         }
 
+        String viewID = queryParam.getQueryRetrieveView().getViewID();
         StudyQueryAttributes queryAttrs = new StudyQueryAttributes();
-        queryAttrs.setViewID(queryParam.getQueryRetrieveView().getViewID());
+        queryAttrs.setViewID(viewID);
         queryAttrs.setStudy(study);
         populateStudyQueryAttributes(studyDerivedFields, queryAttrs);
 
+        HashMap<Long, SeriesQueryAttributes> seriesQueryAttrs = new HashMap<Long, SeriesQueryAttributes>();
+        for (Map.Entry<Long, DerivedSeriesFields> entry : seriesDerivedFields.entrySet()) {
+            SeriesQueryAttributes seriesAttrs = new SeriesQueryAttributes();
+            seriesAttrs.setViewID(viewID);
+            populateSeriesDerivedFields(entry.getValue(), seriesAttrs);
+            seriesQueryAttrs.put(entry.getKey(), seriesAttrs);
+        }
+
         try {
             // should run in own transaction
-            self.persistStudyQueryAttributes(queryAttrs, calculatedForVersion);
+            self.persistStudyQueryAttributes(queryAttrs, seriesQueryAttrs, calculatedForVersion);
         } catch (EJBTransactionRolledbackException transactionRolledbackException) {
             LOG.warn("Study derived fields could not be persisted, this is usually okay - probably there was a concurrent calculation/update.", transactionRolledbackException);
             // ... it could also mean that we forgot to clean the outdated query attributes when updating a study!
@@ -270,7 +295,8 @@ public class QueryServiceEJB {
     }
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void persistStudyQueryAttributes(StudyQueryAttributes queryAttrs, long calculatedForVersion) {
+    public void persistStudyQueryAttributes(StudyQueryAttributes queryAttrs,
+            Map<Long, SeriesQueryAttributes> seriesQueryAttrs, long calculatedForVersion) {
         // locking here ensures that we really never save the wrong version of the calculated fields
         Study study = em.find(Study.class, queryAttrs.getStudy().getPk(), LockModeType.PESSIMISTIC_READ);
         if(study != null) {
@@ -280,6 +306,18 @@ public class QueryServiceEJB {
             if (calculatedForVersion == version) {
                 queryAttrs.setStudy(study);
                 em.persist(queryAttrs);
+                // only add missing series query attributes, existing ones are locked and
+                // updated incrementally by QueryAttributesUpdater
+                for (Map.Entry<Long, SeriesQueryAttributes> entry : seriesQueryAttrs.entrySet()) {
+                    SeriesQueryAttributes seriesAttrs = entry.getValue();
+                    if (em.createNamedQuery(SeriesQueryAttributes.FIND_BY_VIEW_ID_AND_SERIES_FK)
+                            .setParameter(1, seriesAttrs.getViewID())
+                            .setParameter(2, entry.getKey())
+                            .getResultList().isEmpty()) {
+                        seriesAttrs.setSeries(em.getReference(Series.class, entry.getKey()));
+                        em.persist(seriesAttrs);
+                    }
+                }
             } else {
                 LOG.info("Not saving study query attributes, because there was a concurrent modification");
             }
@@ -376,4 +414,52 @@ public class QueryServiceEJB {
         }
     }
 
+    /**
+     * Initializes the Number of Frames column of at most <code>limit</code>
+     * instances, which were stored before that column was introduced, from
+     * their encoded attributes. Uses bulk updates, so neither the version nor
+     * the update time of the instances and their series are touched.
+     * Instances with undecodable attributes are logged and set to 1 frame.
+     *
+     * @param limit maximal number of instances to update
+     * @return number of updated instances
+     */
+    public int updateNumberOfFrames(int limit) {
+        List<Tuple> results = queryFactory.query(em.unwrap(Session.class))
+                .from(QInstance.instance)
+                .join(QInstance.instance.attributesBlob, QueryBuilder.instanceAttributesBlob)
+                .where(QInstance.instance.numberOfFrames.isNull())
+                .limit(limit)
+                .list(QInstance.instance.pk,
+                        QueryBuilder.instanceAttributesBlob.encodedAttributes);
+
+        HashMap<Integer, List<Long>> pksByNumberOfFrames = new HashMap<Integer, List<Long>>();
+        for (Tuple result : results) {
+            Integer numberOfFrames = numberOfFrames(result.get(QInstance.instance.pk),
+                    result.get(QueryBuilder.instanceAttributesBlob.encodedAttributes));
+            List<Long> pks = pksByNumberOfFrames.get(numberOfFrames);
+            if (pks == null)
+                pksByNumberOfFrames.put(numberOfFrames, pks = new ArrayList<Long>());
+            pks.add(result.get(QInstance.instance.pk));
+        }
+        for (Map.Entry<Integer, List<Long>> entry : pksByNumberOfFrames.entrySet()) {
+            em.createNamedQuery(Instance.UPDATE_NUMBER_OF_FRAMES)
+                .setParameter(1, entry.getKey())
+                .setParameter(2, entry.getValue())
+                .executeUpdate();
+        }
+        return results.size();
+    }
+
+    private static int numberOfFrames(Long instancePk, byte[] encodedAttributes) {
+        try {
+            return Utils.decodeAttributes(encodedAttributes)
+                    .getInt(Tag.NumberOfFrames, 1);
+        } catch (BlobCorruptedException e) {
+            LOG.warn("Failed to decode attributes of instance[pk={}] - assume 1 frame",
+                    instancePk, e);
+            return 1;
+        }
+    }
+
 }
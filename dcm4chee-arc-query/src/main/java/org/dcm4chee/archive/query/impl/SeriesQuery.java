@@ -59,6 +59,7 @@ import com.mysema.query.BooleanBuilder;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 import java.util.Date;
 
@@ -98,6 +99,11 @@ class SeriesQuery extends AbstractQuery<Series> {
         return SELECT;
     }
 
+    @Override
+    protected NumberPath<Long> pk() {
+        return QSeries.series.pk;
+    }
+
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
         query = QueryBuilder.applySeriesLevelJoins(query,
@@ -56,6 +56,7 @@ import com.mysema.query.BooleanBuilder;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
 
 import java.util.Date;
 
@@ -87,6 +88,11 @@ class StudyQuery extends AbstractQuery<Study> {
         return SELECT;
     }
 
+    @Override
+    protected NumberPath<Long> pk() {
+        return QStudy.study.pk;
+    }
+
     @Override
     protected HibernateQuery applyJoins(HibernateQuery query) {
         query = QueryBuilder.applyStudyLevelJoins(query,
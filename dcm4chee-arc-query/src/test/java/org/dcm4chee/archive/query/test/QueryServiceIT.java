@@ -43,6 +43,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.TreeSet;
 
 import javax.annotation.Resource;
@@ -61,8 +62,15 @@ import org.dcm4che3.data.IDWithIssuer;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.data.UID;
 import org.dcm4che3.net.service.QueryRetrieveLevel;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4chee.archive.conf.AttributeFilter;
 import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Patient;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.Study;
 import org.dcm4chee.archive.patient.PatientService;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
@@ -809,4 +817,62 @@ public class QueryServiceIT {
 
         assertFalse(query.hasMoreMatches()); // zero results
     }
+
+    @Test
+    public void testUpdateNumberOfFrames() throws Exception {
+        try {
+            Instance multiFrame = persistInstance("1.2.40.0.13.1.1.99.100", 5);
+            Instance corrupted = persistInstance("1.2.40.0.13.1.1.99.101", 5);
+            em.flush();
+            em.createQuery("UPDATE Instance i SET i.numberOfFrames = NULL WHERE i.pk IN (?1)")
+                    .setParameter(1, Arrays.asList(multiFrame.getPk(), corrupted.getPk()))
+                    .executeUpdate();
+            em.createNativeQuery("UPDATE dicomattrs SET attrs = ?1 WHERE pk = ?2")
+                    .setParameter(1, new byte[] { 1, 2, 3 })
+                    .setParameter(2, corrupted.getAttributesBlob().getPk())
+                    .executeUpdate();
+            em.clear();
+
+            queryService.updateNumberOfFrames();
+
+            em.clear();
+            assertEquals(Integer.valueOf(5),
+                    em.find(Instance.class, multiFrame.getPk()).getNumberOfFrames());
+            assertEquals(Integer.valueOf(1),
+                    em.find(Instance.class, corrupted.getPk()).getNumberOfFrames());
+        } finally {
+            // discard the test data, closeQuery() commits the new transaction
+            utx.rollback();
+            utx.begin();
+            em.joinTransaction();
+        }
+    }
+
+    private Instance persistInstance(String studyIUID, int numberOfFrames) {
+        AttributeFilter filter = new AttributeFilter();
+        ESoundex fuzzyStr = new ESoundex();
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, studyIUID + ".1");
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, studyIUID + ".1.1");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedCTImageStorage);
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setInt(Tag.NumberOfFrames, VR.IS, numberOfFrames);
+        Patient patient = new Patient();
+        patient.setAttributes(new Attributes(), filter, fuzzyStr, "*");
+        em.persist(patient);
+        Study study = new Study();
+        study.setPatient(patient);
+        study.setAttributes(attrs, filter, fuzzyStr, "*");
+        em.persist(study);
+        Series series = new Series();
+        series.setStudy(study);
+        series.setAttributes(attrs, filter, fuzzyStr, "*");
+        em.persist(series);
+        Instance inst = new Instance();
+        inst.setSeries(series);
+        inst.setAttributes(attrs, filter, fuzzyStr, "*");
+        em.persist(inst);
+        return inst;
+    }
 }
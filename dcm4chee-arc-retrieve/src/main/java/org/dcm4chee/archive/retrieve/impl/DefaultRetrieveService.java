@@ -39,10 +39,17 @@
 package org.dcm4chee.archive.retrieve.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.IDWithIssuer;
@@ -52,22 +59,26 @@ import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.QueryParam;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.ExternalLocationTuple;
-import org.dcm4chee.archive.entity.ExternalRetrieveLocation;
 import org.dcm4chee.archive.entity.QLocation;
 import org.dcm4chee.archive.entity.QInstance;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QSeries;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.Utils;
-import org.dcm4chee.archive.locationmgmt.LocationMgmt;
 import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.archive.retrieve.RetrieveContext;
 import org.dcm4chee.archive.retrieve.RetrieveService;
 import org.dcm4chee.storage.conf.StorageDeviceExtension;
 import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.jboss.logging.Logger;
 
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.query.BooleanBuilder;
 import com.mysema.query.Tuple;
+import com.mysema.query.jpa.hibernate.HibernateQuery;
 import com.mysema.query.types.Expression;
 
 /**
@@ -81,6 +92,8 @@ public class DefaultRetrieveService implements RetrieveService {
 
     private static final Logger LOG = Logger.getLogger(DefaultRetrieveService.class);
 
+    private static final int EXTERNAL_LOCATIONS_BATCH_SIZE = 500;
+
     private static final Expression<?>[] SELECT = {
         QLocation.location.storagePath,
         QLocation.location.entryName,
@@ -99,6 +112,9 @@ public class DefaultRetrieveService implements RetrieveService {
         QStudy.study.studyInstanceUID
     };
 
+    @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
+    private EntityManager em;
+
     @Inject
     private Device device;
 
@@ -106,7 +122,7 @@ public class DefaultRetrieveService implements RetrieveService {
     private RetrieveServiceEJB ejb;
 
     @Inject
-    private LocationMgmt locationManager;
+    private StudyAccessTimeUpdater studyAccessTimeUpdater;
 
     public RetrieveContext createRetrieveContext(RetrieveService service,
             String sourceAET, ArchiveAEExtension arcAE) {
@@ -124,15 +140,11 @@ public class DefaultRetrieveService implements RetrieveService {
     public List<ArchiveInstanceLocator> calculateMatches(IDWithIssuer[] pids,
             Attributes keys, QueryParam queryParam, boolean withoutBulkData) {
 
-        return locate(
-                ejb.query(SELECT,
-                        pids,
-                        keys.getStrings(Tag.StudyInstanceUID),
-                        keys.getStrings(Tag.SeriesInstanceUID),
-                        keys.getStrings(Tag.SOPInstanceUID),
-                        queryParam),
-                withoutBulkData
-        );
+        return calculateMatches(pids,
+                keys.getStrings(Tag.StudyInstanceUID),
+                keys.getStrings(Tag.SeriesInstanceUID),
+                keys.getStrings(Tag.SOPInstanceUID),
+                queryParam, withoutBulkData);
     }
 
     /**
@@ -146,27 +158,80 @@ public class DefaultRetrieveService implements RetrieveService {
     public List<ArchiveInstanceLocator> calculateMatches(String studyIUID,
             String seriesIUID, String objectIUID, QueryParam queryParam, boolean withoutBulkData) {
 
-        return locate(
-                ejb.query(SELECT,
-                        null,
-                        studyIUID == null ? null : new String[]{studyIUID},
-                        seriesIUID == null ? null : new String[]{seriesIUID},
-                        objectIUID == null ? null : new String[]{objectIUID},
-                        queryParam),
-                withoutBulkData);
+        return calculateMatches(null,
+                studyIUID == null ? null : new String[]{studyIUID},
+                seriesIUID == null ? null : new String[]{seriesIUID},
+                objectIUID == null ? null : new String[]{objectIUID},
+                queryParam, withoutBulkData);
+    }
+
+    /**
+     * Scrolls forward through the matching rows instead of listing them, so
+     * the encoded attributes of each instance are decoded and released while
+     * reading the next row, and the rows themselves are never held in memory
+     * as a whole.
+     */
+    private List<ArchiveInstanceLocator> calculateMatches(IDWithIssuer[] pids,
+            String[] studyIUIDs, String[] seriesIUIDs, String[] objectIUIDs,
+            QueryParam queryParam, boolean withoutBulkData) {
+        StatelessSession session = em.unwrap(Session.class)
+                .getSessionFactory().openStatelessSession();
+        try {
+            CloseableIterator<Tuple> tuples = new HibernateQuery(session)
+                    .from(QInstance.instance)
+                    .leftJoin(QInstance.instance.locations, QLocation.location)
+                    .innerJoin(QInstance.instance.attributesBlob,
+                            QueryBuilder.instanceAttributesBlob)
+                    .innerJoin(QInstance.instance.series, QSeries.series)
+                    .innerJoin(QSeries.series.study, QStudy.study)
+                    .innerJoin(QStudy.study.patient, QPatient.patient)
+                    .orderBy(QInstance.instance.pk.asc())
+                    .where(predicate(pids, studyIUIDs, seriesIUIDs,
+                            objectIUIDs, queryParam))
+                    .iterate(SELECT);
+            try {
+                return locate(tuples, withoutBulkData);
+            } finally {
+                tuples.close();
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    private static BooleanBuilder predicate(IDWithIssuer[] pids,
+            String[] studyIUIDs, String[] seriesIUIDs, String[] objectIUIDs,
+            QueryParam queryParam) {
+        String nullValue = queryParam.getNullValueForQueryFields();
+        BooleanBuilder builder = new BooleanBuilder();
+        builder.and(QueryBuilder.pids(pids, 
+                queryParam.isMatchLinkedPatientIDs(), false));
+        builder.and(QueryBuilder.uids(QStudy.study.studyInstanceUID,
+                studyIUIDs, false, nullValue));
+        builder.and(QueryBuilder.uids(QSeries.series.seriesInstanceUID,
+                seriesIUIDs, false, nullValue));
+        builder.and(QueryBuilder.uids(QInstance.instance.sopInstanceUID,
+                objectIUIDs, false, nullValue));
+        builder.and(QueryBuilder.hideRejectedInstance(queryParam));
+        builder.and(QueryBuilder.hideRejectionNote(queryParam));
+        return builder;
     }
 
-    private List<ArchiveInstanceLocator> locate(List<Tuple> tuples, boolean withoutBulkData) {
+    private List<ArchiveInstanceLocator> locate(Iterator<Tuple> tuples,
+            boolean withoutBulkData) {
 
-        List<String> studiesUpdatedForAccess = new ArrayList<String>();
-        List<ArchiveInstanceLocator> locators = new ArrayList<ArchiveInstanceLocator>(tuples.size());
+        Set<String> studiesUpdatedForAccess = new HashSet<String>();
+        Map<Long, ArchiveInstanceLocator> withoutLocation =
+                new HashMap<Long, ArchiveInstanceLocator>();
+        List<ArchiveInstanceLocator> locators = new ArrayList<ArchiveInstanceLocator>();
         StorageDeviceExtension storageConf = device.getDeviceExtension(StorageDeviceExtension.class);
         long instPk = -1;
         long seriesPk = -1;
         Attributes seriesAttrs = null;
         ArchiveInstanceLocator locator = null;
 
-        for (Tuple tuple : tuples) {
+        while (tuples.hasNext()) {
+            Tuple tuple = tuples.next();
             Boolean locatorWithoutBulkData = tuple.get(QLocation.location.withoutBulkData);
             String retrieveAETs = tuple.get(QInstance.instance.retrieveAETs);
             if (locatorWithoutBulkData == null) { // No Location
@@ -186,9 +251,9 @@ public class DefaultRetrieveService implements RetrieveService {
                 String groupID = tuple.get(QLocation.location.storageSystemGroupID);
                 String currentStudy = tuple.get(QStudy.study.studyInstanceUID);
                 
-                if(!studiesUpdatedForAccess.contains(currentStudy) 
-                        && groupID !=null) {
-                    locationManager.findOrCreateStudyOnStorageGroup(currentStudy, 
+                if (groupID != null && studiesUpdatedForAccess.add(
+                        currentStudy + '@' + groupID)) {
+                    studyAccessTimeUpdater.updateAccessTime(currentStudy,
                             groupID);
                 }
                 
@@ -200,8 +265,10 @@ public class DefaultRetrieveService implements RetrieveService {
             }
             instPk = nextInstPk;
             if(tuple.get(QLocation.location.storageSystemGroupID) == null) { //can only be null if instance has no location!
-                locator = augmentExternalLocations(updateLocator(storageConf, 
-                        locator, seriesAttrs, tuple));
+                locator = updateLocator(storageConf, locator, seriesAttrs, tuple);
+                withoutLocation.put(nextInstPk, locator);
+                if (withoutLocation.size() >= EXTERNAL_LOCATIONS_BATCH_SIZE)
+                    augmentExternalLocations(withoutLocation);
             } else {
                 if (locator != null && !withoutBulkData && !locatorWithoutBulkData && locator.isWithoutBulkdata())
                     locator = null; //replace current locator (withoutBulkData) with locator with bulkdata 
@@ -210,19 +277,25 @@ public class DefaultRetrieveService implements RetrieveService {
         }
         if (locator != null)
             locators.add(locator);
+        if (!withoutLocation.isEmpty())
+            augmentExternalLocations(withoutLocation);
         return locators;
     }
 
-    private ArchiveInstanceLocator augmentExternalLocations(
-            ArchiveInstanceLocator updateLocator) {
-        ArrayList<ExternalRetrieveLocation> externalLocations =
-                (ArrayList<ExternalRetrieveLocation>) 
-                ejb.getExternalLocations(updateLocator.iuid);
-        for(ExternalRetrieveLocation loc : externalLocations)
-        updateLocator.getExternalLocators().add(new ExternalLocationTuple(
-                loc.getRetrieveDeviceName(), loc.getAvailability()));
-            //update external retrieveLocation 
-            return updateLocator;
+    /**
+     * Fetches the external locations of a batch of instances without
+     * Location by one query and clears the batch.
+     */
+    private void augmentExternalLocations(
+            Map<Long, ArchiveInstanceLocator> withoutLocation) {
+        Map<Long, List<ExternalLocationTuple>> externalLocations =
+                ejb.getExternalLocations(withoutLocation.keySet());
+        for (Map.Entry<Long, List<ExternalLocationTuple>> entry
+                : externalLocations.entrySet()) {
+            withoutLocation.get(entry.getKey()).getExternalLocators()
+                    .addAll(entry.getValue());
+        }
+        withoutLocation.clear();
     }
 
     private static ArchiveInstanceLocator updateLocator(
@@ -38,30 +38,22 @@
 
 package org.dcm4chee.archive.retrieve.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.IDWithIssuer;
-import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.dto.ExternalLocationTuple;
 import org.dcm4chee.archive.entity.ExternalRetrieveLocation;
 import org.dcm4chee.archive.entity.PatientStudySeriesAttributes;
-import org.dcm4chee.archive.entity.QLocation;
-import org.dcm4chee.archive.entity.QInstance;
-import org.dcm4chee.archive.entity.QPatient;
-import org.dcm4chee.archive.entity.QSeries;
-import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.Series;
-import org.dcm4chee.archive.query.util.QueryBuilder;
-import org.hibernate.Session;
-
-import com.mysema.query.BooleanBuilder;
-import com.mysema.query.Tuple;
-import com.mysema.query.jpa.hibernate.HibernateQuery;
-import com.mysema.query.types.Expression;
+import org.dcm4chee.storage.conf.Availability;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -73,38 +65,6 @@ public class RetrieveServiceEJB {
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     private EntityManager em;
 
-    public List<Tuple> query(Expression<?>[] select,
-            IDWithIssuer[] pids, String[] studyIUIDs, String[] seriesIUIDs,
-            String[] objectIUIDs, QueryParam queryParam) {
-
-        String nullValue = queryParam.getNullValueForQueryFields();
-        BooleanBuilder builder = new BooleanBuilder();
-        builder.and(QueryBuilder.pids(pids, 
-                queryParam.isMatchLinkedPatientIDs(), false));
-        builder.and(QueryBuilder.uids(QStudy.study.studyInstanceUID,
-                studyIUIDs, false, nullValue));
-        builder.and(QueryBuilder.uids(QSeries.series.seriesInstanceUID,
-                seriesIUIDs, false, nullValue));
-        builder.and(QueryBuilder.uids(QInstance.instance.sopInstanceUID,
-                objectIUIDs, false, nullValue));
-        builder.and(QueryBuilder.hideRejectedInstance(queryParam));
-        builder.and(QueryBuilder.hideRejectionNote(queryParam));
-
-        List<Tuple> query = new HibernateQuery(em.unwrap(Session.class))
-                .from(QInstance.instance)
-                .leftJoin(QInstance.instance.locations, QLocation.location)
-                .innerJoin(QInstance.instance.attributesBlob,
-                        QueryBuilder.instanceAttributesBlob)
-                .innerJoin(QInstance.instance.series, QSeries.series)
-                .innerJoin(QSeries.series.study, QStudy.study)
-                .innerJoin(QStudy.study.patient, QPatient.patient)
-                .orderBy(QInstance.instance.pk.asc())
-                .where(builder)
-                .list(select);
-
-        return query;
-    }
-
     public Attributes getSeriesAttributes(Long seriesPk) {
         PatientStudySeriesAttributes result = (PatientStudySeriesAttributes) em
                 .createNamedQuery(Series.PATIENT_STUDY_SERIES_ATTRIBUTES)
@@ -112,11 +72,22 @@ public class RetrieveServiceEJB {
         return result.getAttributes();
     }
 
-    public List<ExternalRetrieveLocation> getExternalLocations(String iuid) {
+    public Map<Long, List<ExternalLocationTuple>> getExternalLocations(
+            Collection<Long> instancePks) {
         @SuppressWarnings("unchecked")
-        List<ExternalRetrieveLocation> result = em.createNamedQuery(
-                ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_IUID)
-                .setParameter(1,iuid).getResultList();
-        return result;
+        List<Object[]> result = em.createNamedQuery(
+                ExternalRetrieveLocation.FIND_EXT_LOCATIONS_BY_INSTANCE_PKS)
+                .setParameter(1, instancePks).getResultList();
+        Map<Long, List<ExternalLocationTuple>> map =
+                new HashMap<Long, List<ExternalLocationTuple>>();
+        for (Object[] row : result) {
+            Long instancePk = (Long) row[0];
+            List<ExternalLocationTuple> list = map.get(instancePk);
+            if (list == null)
+                map.put(instancePk, list = new ArrayList<ExternalLocationTuple>());
+            list.add(new ExternalLocationTuple((String) row[1],
+                    (Availability) row[2]));
+        }
+        return map;
     }
 }
@@ -0,0 +1,108 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.retrieve.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+
+/**
+ * Updates the access time of studies on storage system groups on retrieve,
+ * but at most once per study and group within the configured
+ * {@link ArchiveDeviceExtension#getStudyAccessTimeUpdateInterval()}, so
+ * frequently retrieved studies do not cause a DB update and row lock by
+ * each retrieve.
+ */
+@ApplicationScoped
+public class StudyAccessTimeUpdater {
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private LocationMgmt locationManager;
+
+    // <studyIUID>@<groupID> -> time of last update, in order of the updates
+    private final LinkedHashMap<String, Long> lastUpdates =
+            new LinkedHashMap<String, Long>();
+
+    public void updateAccessTime(String studyIUID, String groupID) {
+        long interval = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getStudyAccessTimeUpdateInterval() * 1000L;
+        if (interval <= 0) {
+            locationManager.findOrCreateStudyOnStorageGroup(studyIUID, groupID);
+            return;
+        }
+        String key = studyIUID + '@' + groupID;
+        if (!markUpdated(key, interval))
+            return;
+
+        try {
+            locationManager.findOrCreateStudyOnStorageGroup(studyIUID, groupID);
+        } catch (RuntimeException e) {
+            synchronized (lastUpdates) {
+                lastUpdates.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    private boolean markUpdated(String key, long interval) {
+        long now = System.currentTimeMillis();
+        synchronized (lastUpdates) {
+            for (Iterator<Long> iter = lastUpdates.values().iterator();
+                    iter.hasNext();) {
+                if (now - iter.next() < interval)
+                    break;
+                iter.remove();
+            }
+            if (lastUpdates.containsKey(key))
+                return false;
+
+            lastUpdates.put(key, now);
+            return true;
+        }
+    }
+}
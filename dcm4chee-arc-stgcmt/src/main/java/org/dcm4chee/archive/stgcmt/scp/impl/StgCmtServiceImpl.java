@@ -40,6 +40,10 @@ package org.dcm4chee.archive.stgcmt.scp.impl;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
@@ -79,6 +83,7 @@ import org.dcm4che3.net.pdu.RoleSelection;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.stgcmt.scp.CommitEvent;
 import org.dcm4chee.archive.stgcmt.scp.StgCmtService;
@@ -129,6 +134,11 @@ public class StgCmtServiceImpl implements StgCmtService {
     @Any
     private Event<CommitEvent> commitEvent; 
 
+    private static final int MAX_VERIFIED_DIGESTS = 100000;
+
+    private final VerifiedDigestCache verifiedDigests =
+            new VerifiedDigestCache(MAX_VERIFIED_DIGESTS);
+
     private int eventTypeId(Attributes eventInfo) {
         return eventInfo.containsValue(Tag.FailedSOPSequence) ? 2 : 1;
     }
@@ -141,41 +151,103 @@ public class StgCmtServiceImpl implements StgCmtService {
                 actionInfo);
     }
 
+    /**
+     * Verifies the digests of the found files in parallel - by up to
+     * {@link ArchiveDeviceExtension#getStgCmtDigestCheckThreads()} threads per
+     * storage system - and removes the files whose digest does not match.
+     * Files verified successfully within
+     * {@link ArchiveDeviceExtension#getStgCmtDigestCheckCacheTimeout()} are
+     * not read again.
+     */
     private List<Tuple> checkForDigestAndAdjust(List<Tuple> foundMatches) throws IOException {
-
-        Map<StorageSystem, List<String>> committed = new HashMap<>();
-
-        for (java.util.Iterator<Tuple> iter = foundMatches.iterator(); iter
-                .hasNext();) {
-            Tuple tuple = iter.next();
-
-            String digest = tuple.get(3, String.class);
-            String filePath = tuple.get(4, String.class);
-            String storageSystemID = tuple.get(5, String.class);
-            String storageGroupID = tuple.get(6, String.class);
-            StorageDeviceExtension devExt = device
-                    .getDeviceExtension(StorageDeviceExtension.class);
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        StorageDeviceExtension devExt = device
+                .getDeviceExtension(StorageDeviceExtension.class);
+        final long cacheTimeout = arcDev.getStgCmtDigestCheckCacheTimeout() * 1000L;
+        final int n = foundMatches.size();
+        final AtomicIntegerArray matches = new AtomicIntegerArray(n);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Map<StorageSystem, ConcurrentLinkedQueue<Integer>> bySystem =
+                new LinkedHashMap<StorageSystem, ConcurrentLinkedQueue<Integer>>();
+        final StorageSystem[] storageSystems = new StorageSystem[n];
+        final Tuple[] tuples = foundMatches.toArray(new Tuple[n]);
+        for (int i = 0; i < n; i++) {
             StorageSystem storageSystem = devExt.getStorageSystem(
-                    storageGroupID, storageSystemID);
-            RetrieveContext ctx = storageRetrieveService
-                    .createRetrieveContext(storageSystem);
-            try {
-                if (!storageRetrieveService.calculateDigestAndMatch(ctx, digest, filePath)) {
-                    iter.remove();
-                }
-                else {
-                    if (committed.get(storageSystem) == null)
-                        committed.put(storageSystem,new ArrayList<String>());
-                    committed.get(storageSystem).add(filePath);
-                }
-            } catch (IOException e) {
-                LOG.error(
-                        "Failed to calculate digest on storage commitment request"
-                                + ", no digest check is performed, {}", e);
-                return foundMatches;
+                    tuples[i].get(6, String.class), tuples[i].get(5, String.class));
+            storageSystems[i] = storageSystem;
+            ConcurrentLinkedQueue<Integer> queue = bySystem.get(storageSystem);
+            if (queue == null)
+                bySystem.put(storageSystem, queue = new ConcurrentLinkedQueue<Integer>());
+            queue.add(i);
+        }
 
+        List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>();
+        for (final Map.Entry<StorageSystem, ConcurrentLinkedQueue<Integer>> entry
+                : bySystem.entrySet()) {
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    StorageSystem storageSystem = entry.getKey();
+                    RetrieveContext ctx = storageRetrieveService
+                            .createRetrieveContext(storageSystem);
+                    Integer i;
+                    while (failure.get() == null
+                            && (i = entry.getValue().poll()) != null) {
+                        String digest = tuples[i].get(3, String.class);
+                        String filePath = tuples[i].get(4, String.class);
+                        String key = VerifiedDigestCache.key(
+                                tuples[i].get(6, String.class),
+                                tuples[i].get(5, String.class), filePath, digest);
+                        if (cacheTimeout > 0
+                                && verifiedDigests.isVerified(key, cacheTimeout)) {
+                            matches.set(i, 1);
+                            continue;
+                        }
+                        try {
+                            if (storageRetrieveService.calculateDigestAndMatch(
+                                    ctx, digest, filePath)) {
+                                matches.set(i, 1);
+                                verifiedDigests.verified(key);
+                            }
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }
+            };
+            int threads = Math.min(entry.getValue().size(),
+                    Math.max(1, arcDev.getStgCmtDigestCheckThreads()));
+            for (int j = 0; j < threads; j++) {
+                FutureTask<Void> task = new FutureTask<Void>(worker, null);
+                device.getExecutor().execute(task);
+                workers.add(task);
+            }
+        }
+        for (FutureTask<Void> task : workers) {
+            try {
+                task.get();
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
             }
         }
+        if (failure.get() != null) {
+            LOG.error(
+                    "Failed to calculate digest on storage commitment request"
+                            + ", no digest check is performed, {}", failure.get());
+            return foundMatches;
+        }
+
+        List<Tuple> verified = new ArrayList<Tuple>(n);
+        Map<StorageSystem, List<String>> committed = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (matches.get(i) == 0)
+                continue;
+            verified.add(tuples[i]);
+            if (committed.get(storageSystems[i]) == null)
+                committed.put(storageSystems[i],new ArrayList<String>());
+            committed.get(storageSystems[i]).add(tuples[i].get(4, String.class));
+        }
 
         //sync if configured
         for (StorageSystem storageSystem : committed.keySet()) {
@@ -184,7 +256,7 @@ public class StgCmtServiceImpl implements StgCmtService {
             }
         }
 
-        return foundMatches;
+        return verified;
 
     }
 
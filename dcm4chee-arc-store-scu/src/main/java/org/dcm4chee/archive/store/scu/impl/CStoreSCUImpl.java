@@ -39,11 +39,22 @@
 package org.dcm4chee.archive.store.scu.impl;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.DatasetWithFMI;
@@ -57,14 +68,21 @@ import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.DataWriter;
 import org.dcm4che3.net.DataWriterAdapter;
+import org.dcm4che3.net.Device;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.CommonExtendedNegotiation;
+import org.dcm4che3.net.pdu.ExtendedNegotiation;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.RoleSelection;
 import org.dcm4che3.net.service.BasicCStoreSCU;
 import org.dcm4che3.net.service.BasicCStoreSCUResp;
 import org.dcm4che3.net.service.CStoreSCU;
 import org.dcm4che3.net.service.InstanceLocator;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.ServiceType;
 import org.dcm4chee.archive.entity.Utils;
@@ -88,6 +106,8 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
     private static final Logger LOG = LoggerFactory
             .getLogger(CStoreSCUImpl.class);
 
+    private static final long MAX_HEADER_WEIGHT = 1024L * 1024;
+
     private CStoreSCUContext context;
     private CStoreSCUService service;
 
@@ -95,6 +115,10 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     private boolean withoutBulkData;
 
+    private ReadAhead readAhead;
+
+    private FanOut fanOut;
+
     public CStoreSCUImpl(ApplicationEntity localAE, ApplicationEntity remoteAE, ServiceType service,
                          CStoreSCUService storeSCUService, WeightWatcher weightWatcher) {
         super();
@@ -119,7 +143,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         BasicCStoreSCUResp responseForLocallyAvailable = null;
 
         if (!locallyAvailable.isEmpty())
-            responseForLocallyAvailable = pushInstances(locallyAvailable, storeas, priority);
+            responseForLocallyAvailable = pushInstances(locallyAvailable, storeas, priority, true);
         //initialize remaining response
         BasicCStoreSCUResp finalResponse = extendResponse(responseForLocallyAvailable);
 
@@ -129,7 +153,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
                 @Override
                 public void onFetch(Collection<ArchiveInstanceLocator> instances,
                                     BasicCStoreSCUResp resp) {
-                    pushInstances((ArrayList<ArchiveInstanceLocator>) instances, storeas, priority);
+                    pushInstances((ArrayList<ArchiveInstanceLocator>) instances, storeas, priority, false);
                 }
             };
             FetchForwardCallBack wadoCallBack = new FetchForwardCallBack() {
@@ -137,7 +161,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
                 @Override
                 public void onFetch(Collection<ArchiveInstanceLocator> instances,
                                     BasicCStoreSCUResp resp) {
-                    pushInstances((ArrayList<ArchiveInstanceLocator>) instances, storeas, priority);
+                    pushInstances((ArrayList<ArchiveInstanceLocator>) instances, storeas, priority, false);
                 }
             };
             finalResponse = service.getFetchForwardService().fetchForward(instances.size(), finalResponse, externallyAvailable, storeas, priority, wadoCallBack, moveCallBack);
@@ -157,64 +181,25 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     @Override
     protected void storeInstance(Association storeas, ArchiveInstanceLocator instanceLocator) throws IOException, InterruptedException {
-        String tsuid;
-        DatasetWithFMI datasetWithFMI = null;
-        Attributes attrs;
-        ArchiveInstanceLocator inst = instanceLocator;
-        try {
-            ArchiveAEExtension arcAEExt = context.getLocalAE().getAEExtension(
-                    ArchiveAEExtension.class);
-
-            do {
-                try {
-                    datasetWithFMI = readFrom(inst);
-                } catch (IOException e) {
-                    LOG.info("Failed to read Data Set with iuid={} from {}@{}",
-                            inst.iuid, inst.getFilePath(), inst.getStorageSystem(), e);
-                    inst = inst.getFallbackLocator();
-                    if (inst == null) {
-                        throw e;
-                    }
-                    LOG.info("Try to read Data Set from alternative location");
-                }
-            } while (datasetWithFMI == null);
-
-            attrs = datasetWithFMI.getDataset();
-
-            if (context.getArchiveAEExtension().getRetrieveSuppressionCriteria().isCheckTransferCapabilities()) {
-                // check if eliminated by sop class
-                if (service.isSOPClassSuppressed(inst, context)) {
-                    LOG.info("Not sending instance {} because its SOPClass is suppressed", inst.iuid);
-                    return;
-                }
-            }
-
-            // check for suppression criteria
-            ApplicationEntity remoteAE = context.getRemoteAE();
-            if (remoteAE != null) {
-                String templateURI = arcAEExt.getRetrieveSuppressionCriteria().getSuppressionCriteriaMap().get(remoteAE.getAETitle());
-                if (templateURI != null) {
-                    if(service.isInstanceSuppressed(inst, attrs, templateURI, context)) {
-                        LOG.info("Not sending instance {} because it is suppressed", inst.iuid);
-                        return;
-                    }
-                }
-            }
-
-            tsuid = selectTransferSyntaxFor(storeas, inst, datasetWithFMI);
-
-            service.coerceFileBeforeMerge(inst, attrs, context);
-
-            //here we merge file attributes with attributes in the blob
-            attrs = Utils.mergeAndNormalize(attrs, (Attributes) inst.getObject());
-
-            service.coerceAttributes(attrs, context);
-            if (!inst.iuid.equals(attrs.getString(Tag.SOPInstanceUID))) {
-            	String newIUID = attrs.getString(Tag.SOPInstanceUID);
-            	LOG.info("SOP Instance UID changed! {} -> {}", inst.iuid, newIUID);
-            	inst = changeSOPInstanceUID(inst, newIUID);
-            }
+        if (fanOut == null) {
+            store(storeas, instanceLocator, readAhead);
+            return;
+        }
+        if (fanOut.isSentByMainAssociation(instanceLocator))
+            store(storeas, instanceLocator, readAhead);
+        if (fanOut.isLast(instanceLocator))
+            fanOut.awaitWorkers();
+    }
 
+    private void store(Association storeas, ArchiveInstanceLocator instanceLocator,
+            ReadAhead readAhead) throws IOException, InterruptedException {
+        PreparedInstance prepared;
+        try {
+            prepared = readAhead != null
+                    ? readAhead.take(instanceLocator)
+                    : prepareWatched(storeas, instanceLocator);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             LOG.info("Unable to store {}/{} to {}",
                     UID.nameOf(instanceLocator.cuid), UID.nameOf(instanceLocator.tsuid),
@@ -222,9 +207,12 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
             failed.add(instanceLocator);
             return;
         }
+        if (prepared == null) // suppressed
+            return;
 
         try {
-            weightWatcher.execute(new StoreSCUTask(this, storeas, inst, attrs, tsuid));
+            weightWatcher.execute(new StoreSCUTask(this, storeas,
+                    prepared.inst, prepared.attrs, prepared.tsuid));
         } catch (Exception e) {
             if (e instanceof IOException)
                 throw (IOException) e;
@@ -237,6 +225,85 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
         }
     }
 
+    /**
+     * Prepares the instance by a {@link PrepareTask} executed by the
+     * {@link WeightWatcher}, so reading the Data Set - also by the executor
+     * of the {@link ReadAhead} - is subject to its memory limits.
+     */
+    private PreparedInstance prepareWatched(Association storeas,
+            ArchiveInstanceLocator instanceLocator) throws Exception {
+        return weightWatcher.execute(
+                new PrepareTask(storeas, instanceLocator));
+    }
+
+    /**
+     * Reads the Data Set of the instance, checks the suppression criteria
+     * and coerces its attributes.
+     * 
+     * @return prepared instance or <code>null</code> if the instance is
+     *         suppressed
+     */
+    private PreparedInstance prepare(Association storeas,
+            ArchiveInstanceLocator instanceLocator) throws Exception {
+        String tsuid;
+        DatasetWithFMI datasetWithFMI = null;
+        Attributes attrs;
+        ArchiveInstanceLocator inst = instanceLocator;
+        ArchiveAEExtension arcAEExt = context.getLocalAE().getAEExtension(
+                ArchiveAEExtension.class);
+
+        do {
+            try {
+                datasetWithFMI = readFrom(inst);
+            } catch (IOException e) {
+                LOG.info("Failed to read Data Set with iuid={} from {}@{}",
+                        inst.iuid, inst.getFilePath(), inst.getStorageSystem(), e);
+                inst = inst.getFallbackLocator();
+                if (inst == null) {
+                    throw e;
+                }
+                LOG.info("Try to read Data Set from alternative location");
+            }
+        } while (datasetWithFMI == null);
+
+        attrs = datasetWithFMI.getDataset();
+
+        if (context.getArchiveAEExtension().getRetrieveSuppressionCriteria().isCheckTransferCapabilities()) {
+            // check if eliminated by sop class
+            if (service.isSOPClassSuppressed(inst, context)) {
+                LOG.info("Not sending instance {} because its SOPClass is suppressed", inst.iuid);
+                return null;
+            }
+        }
+
+        // check for suppression criteria
+        ApplicationEntity remoteAE = context.getRemoteAE();
+        if (remoteAE != null) {
+            String templateURI = arcAEExt.getRetrieveSuppressionCriteria().getSuppressionCriteriaMap().get(remoteAE.getAETitle());
+            if (templateURI != null) {
+                if(service.isInstanceSuppressed(inst, attrs, templateURI, context)) {
+                    LOG.info("Not sending instance {} because it is suppressed", inst.iuid);
+                    return null;
+                }
+            }
+        }
+
+        tsuid = selectTransferSyntaxFor(storeas, inst, datasetWithFMI);
+
+        service.coerceFileBeforeMerge(inst, attrs, context);
+
+        //here we merge file attributes with attributes in the blob
+        attrs = Utils.mergeAndNormalize(attrs, (Attributes) inst.getObject());
+
+        service.coerceAttributes(attrs, context);
+        if (!inst.iuid.equals(attrs.getString(Tag.SOPInstanceUID))) {
+        	String newIUID = attrs.getString(Tag.SOPInstanceUID);
+        	LOG.info("SOP Instance UID changed! {} -> {}", inst.iuid, newIUID);
+        	inst = changeSOPInstanceUID(inst, newIUID);
+        }
+        return new PreparedInstance(inst, attrs, tsuid);
+    }
+
 	private ArchiveInstanceLocator changeSOPInstanceUID(ArchiveInstanceLocator inst, String newIUID) {
 		ArchiveInstanceLocator newLocator = new ArchiveInstanceLocator.Builder(
 		        inst.cuid, 
@@ -263,21 +330,40 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
         try (DicomInputStream din = new DicomInputStream(service.getFile(inst)
                 .toFile())) {
-            IncludeBulkData includeBulkData = IncludeBulkData.URI;
-            int stopTag = -1;
-            if (withoutBulkData) {
-                if (((ArchiveInstanceLocator) inst).isWithoutBulkdata()) {
-                    includeBulkData = IncludeBulkData.YES;
-                } else {
-                    includeBulkData = IncludeBulkData.NO;
-                    stopTag = Tag.PixelData;
-                }
-            }
+            IncludeBulkData includeBulkData = includeBulkData(inst);
+            int stopTag = includeBulkData == IncludeBulkData.NO
+                    ? Tag.PixelData : -1;
             din.setIncludeBulkData(includeBulkData);
             return din.readDatasetWithFMI(-1, stopTag);
         }
     }
 
+    private IncludeBulkData includeBulkData(ArchiveInstanceLocator inst) {
+        if (!withoutBulkData)
+            return IncludeBulkData.URI;
+        return inst.isWithoutBulkdata()
+                ? IncludeBulkData.YES
+                : IncludeBulkData.NO;
+    }
+
+    /**
+     * Estimates the memory needed to read the Data Set of the instance by
+     * the size of its file. If bulk data is only referenced by URI, the
+     * estimate is limited to {@link #MAX_HEADER_WEIGHT}.
+     */
+    private long estimatedReadWeight(ArchiveInstanceLocator inst) {
+        long size;
+        try {
+            size = Files.size(service.getFile(inst));
+        } catch (IOException e) {
+            // reported by prepare, which also tries the fallback locations
+            return 0L;
+        }
+        return includeBulkData(inst) == IncludeBulkData.YES
+                ? size
+                : Math.min(size, MAX_HEADER_WEIGHT);
+    }
+
     private BasicCStoreSCUResp extendResponse(
             BasicCStoreSCUResp responseForLocallyAvailable) {
         BasicCStoreSCUResp externalResponse = new BasicCStoreSCUResp();
@@ -367,8 +453,314 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
             return UID.ImplicitVRLittleEndian;
     }
 
-    private BasicCStoreSCUResp pushInstances(ArrayList<ArchiveInstanceLocator> instances, Association storeas, int priority) {
-        return super.cstore(instances, storeas, priority);
+    private BasicCStoreSCUResp pushInstances(ArrayList<ArchiveInstanceLocator> instances, Association storeas,
+            int priority, boolean mayFanOut) {
+        Device device = context.getLocalAE().getDevice();
+        Executor executor = device.getExecutor();
+        int readAheadSize = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getStoreSCUReadAhead();
+        List<ArchiveInstanceLocator> mainInstances = instances;
+        if (mayFanOut && executor != null) {
+            int maxAssociations = context.getService() == ServiceType.MOVESERVICE
+                    && context.getRemoteAE() != null
+                    ? context.getArchiveAEExtension().getCMoveMaxAssociations()
+                    : 1;
+            if (maxAssociations > 1) {
+                fanOut = new FanOut(instances);
+                mainInstances = fanOut.start(executor, storeas, maxAssociations,
+                        readAheadSize);
+            }
+        }
+        if (readAheadSize > 0 && mainInstances.size() > 1 && executor != null)
+            readAhead = new ReadAhead(executor, storeas, mainInstances, readAheadSize);
+        try {
+            return super.cstore(instances, storeas, priority);
+        } finally {
+            if (readAhead != null) {
+                readAhead.cancel();
+                readAhead = null;
+            }
+            if (fanOut != null) {
+                try {
+                    fanOut.awaitWorkers();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                fanOut = null;
+            }
+        }
+    }
+
+    /**
+     * Distributes the instances by series over the association to the Move
+     * Destination of the C-MOVE and additional opened associations to the
+     * same destination. The instances of the additional associations are
+     * sent by workers running on the device executor, while the C-MOVE task
+     * sends the instances of its association. Completed, warning and failed
+     * sub-operations of all associations are collected by this
+     * {@link BasicCStoreSCU}, so the C-MOVE RSPs report the overall progress.
+     */
+    class FanOut {
+        private final List<ArchiveInstanceLocator> instances;
+        private final Set<ArchiveInstanceLocator> mainInstances =
+                Collections.newSetFromMap(
+                        new IdentityHashMap<ArchiveInstanceLocator, Boolean>());
+        private final List<FutureTask<Void>> workers =
+                new ArrayList<FutureTask<Void>>();
+        private boolean awaited;
+
+        FanOut(List<ArchiveInstanceLocator> instances) {
+            this.instances = instances;
+        }
+
+        List<ArchiveInstanceLocator> start(Executor executor, Association storeas,
+                int maxAssociations, int readAheadSize) {
+            Map<String, List<ArchiveInstanceLocator>> bySeries =
+                    new LinkedHashMap<String, List<ArchiveInstanceLocator>>();
+            for (ArchiveInstanceLocator inst : instances) {
+                List<ArchiveInstanceLocator> series = bySeries.get(inst.getSeriesInstanceUID());
+                if (series == null)
+                    bySeries.put(inst.getSeriesInstanceUID(),
+                            series = new ArrayList<ArchiveInstanceLocator>());
+                series.add(inst);
+            }
+            List<Association> associations = new ArrayList<Association>();
+            associations.add(storeas);
+            int numAssociations = Math.min(maxAssociations, bySeries.size());
+            while (associations.size() < numAssociations) {
+                try {
+                    associations.add(context.getLocalAE().connect(
+                            context.getRemoteAE(), copyOf(storeas.getAAssociateRQ())));
+                } catch (Exception e) {
+                    LOG.info("Failed to open additional association to {} - continue with {} associations",
+                            storeas.getRemoteAET(), associations.size(), e);
+                    break;
+                }
+            }
+            // assign each series to the association with least instances
+            List<List<ArchiveInstanceLocator>> partitions =
+                    new ArrayList<List<ArchiveInstanceLocator>>(associations.size());
+            for (int i = 0; i < associations.size(); i++)
+                partitions.add(new ArrayList<ArchiveInstanceLocator>());
+            for (List<ArchiveInstanceLocator> series : bySeries.values()) {
+                List<ArchiveInstanceLocator> smallest = partitions.get(0);
+                for (List<ArchiveInstanceLocator> partition : partitions)
+                    if (partition.size() < smallest.size())
+                        smallest = partition;
+                smallest.addAll(series);
+            }
+            mainInstances.addAll(partitions.get(0));
+            for (int i = 1; i < associations.size(); i++) {
+                FutureTask<Void> worker = new FutureTask<Void>(new Worker(
+                        executor, associations.get(i), partitions.get(i), readAheadSize),
+                        null);
+                workers.add(worker);
+                executor.execute(worker);
+            }
+            LOG.info("Send {} instances of {} series over {} associations to {}",
+                    instances.size(), bySeries.size(), associations.size(),
+                    storeas.getRemoteAET());
+            return partitions.get(0);
+        }
+
+        boolean isSentByMainAssociation(ArchiveInstanceLocator inst) {
+            return mainInstances.contains(inst);
+        }
+
+        boolean isLast(ArchiveInstanceLocator inst) {
+            return inst == instances.get(instances.size() - 1);
+        }
+
+        void awaitWorkers() throws InterruptedException {
+            if (awaited)
+                return;
+
+            for (FutureTask<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    LOG.warn("Unexpected exception in C-STORE worker", e.getCause());
+                }
+            }
+            awaited = true;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Executor executor;
+        private final Association storeas;
+        private final List<ArchiveInstanceLocator> instances;
+        private final int readAheadSize;
+
+        Worker(Executor executor, Association storeas,
+                List<ArchiveInstanceLocator> instances, int readAheadSize) {
+            this.executor = executor;
+            this.storeas = storeas;
+            this.instances = instances;
+            this.readAheadSize = readAheadSize;
+        }
+
+        @Override
+        public void run() {
+            ReadAhead readAhead = readAheadSize > 0 && instances.size() > 1
+                    ? new ReadAhead(executor, storeas, instances, readAheadSize)
+                    : null;
+            int sent = 0;
+            try {
+                for (ArchiveInstanceLocator inst : instances) {
+                    if (status == Status.Cancel)
+                        break;
+                    store(storeas, inst, readAhead);
+                    sent++;
+                }
+                storeas.waitForOutstandingRSP();
+            } catch (Exception e) {
+                LOG.warn("Failed to send instances over {}", storeas, e);
+                failed.addAll(instances.subList(sent, instances.size()));
+            } finally {
+                if (readAhead != null)
+                    readAhead.cancel();
+                try {
+                    storeas.release();
+                } catch (IOException e) {
+                    LOG.info("Failed to release {}", storeas, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the A-ASSOCIATE-RQ of the association to the Move Destination,
+     * so additional associations negotiate the same presentation contexts,
+     * asynchronous operations window, SCP/SCU role selections, extended
+     * negotiations and user identity.
+     */
+    static AAssociateRQ copyOf(AAssociateRQ rq) {
+        AAssociateRQ copy = new AAssociateRQ();
+        copy.setReservedBytes(rq.getReservedBytes());
+        copy.setProtocolVersion(rq.getProtocolVersion());
+        copy.setCallingAET(rq.getCallingAET());
+        copy.setCalledAET(rq.getCalledAET());
+        copy.setApplicationContext(rq.getApplicationContext());
+        copy.setImplClassUID(rq.getImplClassUID());
+        copy.setImplVersionName(rq.getImplVersionName());
+        copy.setMaxPDULength(rq.getMaxPDULength());
+        copy.setMaxOpsInvoked(rq.getMaxOpsInvoked());
+        copy.setMaxOpsPerformed(rq.getMaxOpsPerformed());
+        for (PresentationContext pc : rq.getPresentationContexts())
+            copy.addPresentationContext(new PresentationContext(
+                    pc.getPCID(), pc.getAbstractSyntax(), pc.getTransferSyntaxes()));
+        for (RoleSelection rs : rq.getRoleSelections())
+            copy.addRoleSelection(rs);
+        for (ExtendedNegotiation extNeg : rq.getExtendedNegotiations())
+            copy.addExtendedNegotiation(extNeg);
+        for (CommonExtendedNegotiation extNeg : rq.getCommonExtendedNegotiations())
+            copy.addCommonExtendedNegotiation(extNeg);
+        copy.setUserIdentityRQ(rq.getUserIdentityRQ());
+        return copy;
+    }
+
+    private static class PreparedInstance {
+        final ArchiveInstanceLocator inst;
+        final Attributes attrs;
+        final String tsuid;
+
+        PreparedInstance(ArchiveInstanceLocator inst, Attributes attrs, String tsuid) {
+            this.inst = inst;
+            this.attrs = attrs;
+            this.tsuid = tsuid;
+        }
+    }
+
+    /**
+     * Reads and coerces the next instances to send by the executor of the
+     * device, so reading from the storage overlaps with sending the current
+     * instance. Instances are taken in the order of the list passed to
+     * {@link BasicCStoreSCU#cstore}.
+     */
+    private class ReadAhead {
+        private final Executor executor;
+        private final Association storeas;
+        private final Iterator<ArchiveInstanceLocator> iter;
+        private final int size;
+        private final ArrayDeque<ArchiveInstanceLocator> instances =
+                new ArrayDeque<ArchiveInstanceLocator>();
+        private final ArrayDeque<FutureTask<PreparedInstance>> tasks =
+                new ArrayDeque<FutureTask<PreparedInstance>>();
+
+        ReadAhead(Executor executor, Association storeas,
+                List<ArchiveInstanceLocator> instances, int size) {
+            this.executor = executor;
+            this.storeas = storeas;
+            this.iter = instances.iterator();
+            this.size = size;
+        }
+
+        PreparedInstance take(ArchiveInstanceLocator inst) throws Exception {
+            while (tasks.size() <= size && iter.hasNext())
+                submit(iter.next());
+
+            // skip instances not taken, e.g. on cancel of the retrieve
+            while (!instances.isEmpty() && instances.peek() != inst) {
+                instances.poll();
+                tasks.poll().cancel(true);
+            }
+            if (instances.isEmpty())
+                return prepareWatched(storeas, inst);
+
+            instances.poll();
+            try {
+                return tasks.poll().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+
+        private void submit(final ArchiveInstanceLocator inst) {
+            FutureTask<PreparedInstance> task = new FutureTask<PreparedInstance>(
+                    new Callable<PreparedInstance>() {
+                        @Override
+                        public PreparedInstance call() throws Exception {
+                            return prepareWatched(storeas, inst);
+                        }
+                    });
+            instances.add(inst);
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        void cancel() {
+            for (FutureTask<PreparedInstance> task : tasks)
+                task.cancel(true);
+            tasks.clear();
+            instances.clear();
+        }
+    }
+
+    class PrepareTask implements MemoryConsumingTask<PreparedInstance> {
+        private final Association storeas;
+        private final ArchiveInstanceLocator inst;
+
+        PrepareTask(Association storeas, ArchiveInstanceLocator inst) {
+            this.storeas = storeas;
+            this.inst = inst;
+        }
+
+        @Override
+        public TaskType getTaskType() {
+            return ImageProcessingTaskTypes.TRANSCODE_OUTGOING;
+        }
+
+        @Override
+        public long getEstimatedWeight() {
+            return estimatedReadWeight(inst);
+        }
+
+        @Override
+        public PreparedInstance call() throws Exception {
+            return prepare(storeas, inst);
+        }
     }
 
     private static class StoreSCUTask implements MemoryConsumingTask<Void> {
@@ -0,0 +1,368 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.scu.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.CommonExtendedNegotiation;
+import org.dcm4che3.net.pdu.ExtendedNegotiation;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.RoleSelection;
+import org.dcm4che3.net.pdu.UserIdentityRQ;
+import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.dto.ServiceType;
+import org.dcm4chee.archive.store.scu.CStoreSCUService;
+import org.dcm4chee.task.MemoryConsumingTask;
+import org.dcm4chee.task.WeightWatcher;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests the distribution of instances over additional associations by
+ * {@link CStoreSCUImpl.FanOut} and the copy of the A-ASSOCIATE-RQ used to
+ * open them.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CStoreSCUImplTest {
+
+    @Mock
+    private ApplicationEntity localAE;
+
+    @Mock
+    private ApplicationEntity remoteAE;
+
+    @Mock
+    private CStoreSCUService service;
+
+    @Mock
+    private Association storeas;
+
+    @Mock
+    private Association storeas2;
+
+    @Mock
+    private Association storeas3;
+
+    private AAssociateRQ rq;
+
+    private TestCStoreSCU scu;
+
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    private final Executor deferred = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final Executor inline = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void before() {
+        rq = new AAssociateRQ();
+        rq.setCallingAET("ARCHIVE");
+        rq.setCalledAET("DEST");
+        rq.addPresentationContext(new PresentationContext(1,
+                UID.CTImageStorage, UID.ImplicitVRLittleEndian));
+        when(storeas.getAAssociateRQ()).thenReturn(rq);
+        when(storeas.getRemoteAET()).thenReturn("DEST");
+        scu = new TestCStoreSCU(localAE, remoteAE, service);
+    }
+
+    @Test
+    public void testCopyOfAAssociateRQ() {
+        rq.setMaxPDULength(32768);
+        rq.setMaxOpsInvoked(10);
+        rq.setMaxOpsPerformed(5);
+        rq.setImplVersionName("TEST_1");
+        rq.addPresentationContext(new PresentationContext(3,
+                UID.MRImageStorage, UID.ExplicitVRLittleEndian,
+                UID.ImplicitVRLittleEndian));
+        rq.addRoleSelection(new RoleSelection(UID.CTImageStorage, true, true));
+        rq.addExtendedNegotiation(new ExtendedNegotiation(UID.CTImageStorage,
+                new byte[] { 1, 0, 1 }));
+        rq.addCommonExtendedNegotiation(new CommonExtendedNegotiation(
+                UID.MRImageStorage, UID.StorageServiceClass));
+        rq.setUserIdentityRQ(UserIdentityRQ.usernamePasscode("user",
+                "pass".toCharArray(), true));
+
+        AAssociateRQ copy = CStoreSCUImpl.copyOf(rq);
+
+        Assert.assertNotSame(rq, copy);
+        Assert.assertEquals(rq.getCallingAET(), copy.getCallingAET());
+        Assert.assertEquals(rq.getCalledAET(), copy.getCalledAET());
+        Assert.assertEquals(rq.getApplicationContext(), copy.getApplicationContext());
+        Assert.assertEquals(rq.getImplClassUID(), copy.getImplClassUID());
+        Assert.assertEquals("TEST_1", copy.getImplVersionName());
+        Assert.assertEquals(32768, copy.getMaxPDULength());
+        Assert.assertEquals(10, copy.getMaxOpsInvoked());
+        Assert.assertEquals(5, copy.getMaxOpsPerformed());
+        Assert.assertEquals(2, copy.getNumberOfPresentationContexts());
+        PresentationContext pc = copy.getPresentationContext(3);
+        Assert.assertEquals(UID.MRImageStorage, pc.getAbstractSyntax());
+        Assert.assertArrayEquals(new String[] { UID.ExplicitVRLittleEndian,
+                UID.ImplicitVRLittleEndian }, pc.getTransferSyntaxes());
+        Assert.assertNotNull(copy.getRoleSelectionFor(UID.CTImageStorage));
+        Assert.assertNotNull(copy.getExtNegotiationFor(UID.CTImageStorage));
+        Assert.assertNotNull(copy.getCommonExtendedNegotiationFor(UID.MRImageStorage));
+        Assert.assertSame(rq.getUserIdentityRQ(), copy.getUserIdentityRQ());
+    }
+
+    @Test
+    public void testSeriesAreAssignedToAssociationWithLeastInstances()
+            throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2);
+        List<ArchiveInstanceLocator> series1 = series("1", 3);
+        List<ArchiveInstanceLocator> series2 = series("2", 2);
+        List<ArchiveInstanceLocator> series3 = series("3", 1);
+        List<ArchiveInstanceLocator> instances = concat(series1, series2, series3);
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(instances);
+
+        List<ArchiveInstanceLocator> main = fanOut.start(deferred, storeas, 2, 0);
+
+        verify(localAE, times(1)).connect(eq(remoteAE), any(AAssociateRQ.class));
+        Assert.assertEquals(series1, main);
+        Assert.assertEquals(1, tasks.size());
+        for (ArchiveInstanceLocator inst : series1)
+            Assert.assertTrue(fanOut.isSentByMainAssociation(inst));
+        for (ArchiveInstanceLocator inst : concat(series2, series3))
+            Assert.assertFalse(fanOut.isSentByMainAssociation(inst));
+        Assert.assertTrue(fanOut.isLast(series3.get(0)));
+        Assert.assertFalse(fanOut.isLast(series1.get(2)));
+    }
+
+    @Test
+    public void testNumberOfAssociationsLimitedByNumberOfSeries()
+            throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2, storeas3);
+        List<ArchiveInstanceLocator> instances = concat(series("1", 2), series("2", 2));
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(instances);
+
+        List<ArchiveInstanceLocator> main = fanOut.start(deferred, storeas, 4, 0);
+
+        verify(localAE, times(1)).connect(eq(remoteAE), any(AAssociateRQ.class));
+        Assert.assertEquals(instances.subList(0, 2), main);
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testContinueWithFewerAssociationsIfConnectFails()
+            throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2)
+                .thenThrow(new IOException("Connection refused"));
+        List<ArchiveInstanceLocator> instances =
+                concat(series("1", 1), series("2", 1), series("3", 1));
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(instances);
+
+        List<ArchiveInstanceLocator> main = fanOut.start(deferred, storeas, 3, 0);
+
+        verify(localAE, times(2)).connect(eq(remoteAE), any(AAssociateRQ.class));
+        Assert.assertEquals(Arrays.asList(instances.get(0), instances.get(2)), main);
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testSendAllOverMainAssociationIfNoAdditionalAssociation()
+            throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenThrow(new IOException("Connection refused"));
+        List<ArchiveInstanceLocator> instances = concat(series("1", 2), series("2", 1));
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(instances);
+
+        List<ArchiveInstanceLocator> main = fanOut.start(deferred, storeas, 2, 0);
+
+        Assert.assertEquals(instances, main);
+        Assert.assertTrue(tasks.isEmpty());
+        fanOut.awaitWorkers();
+    }
+
+    @Test
+    public void testFailedInstancesOfWorkerAreCollected() throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2);
+        when(service.getFile(any(ArchiveInstanceLocator.class)))
+                .thenThrow(new IOException("File not found"));
+        List<ArchiveInstanceLocator> series1 = series("1", 2);
+        List<ArchiveInstanceLocator> series2 = series("2", 2);
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(concat(series1, series2));
+
+        fanOut.start(inline, storeas, 2, 0);
+        fanOut.awaitWorkers();
+
+        Assert.assertEquals(series2, scu.failed());
+        verify(storeas2).waitForOutstandingRSP();
+        verify(storeas2).release();
+        verify(storeas, never()).release();
+    }
+
+    @Test
+    public void testInstancesArePreparedByWeightWatcher() throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2);
+        when(service.getFile(any(ArchiveInstanceLocator.class)))
+                .thenThrow(new IOException("File not found"));
+        List<ArchiveInstanceLocator> series2 = series("2", 2);
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(concat(series("1", 1), series2));
+
+        fanOut.start(inline, storeas, 2, 0);
+        fanOut.awaitWorkers();
+
+        Assert.assertEquals(series2.size(), scu.weightWatcher.executed.size());
+        for (MemoryConsumingTask<?> task : scu.weightWatcher.executed)
+            Assert.assertTrue(task instanceof CStoreSCUImpl.PrepareTask);
+    }
+
+    @Test
+    public void testWorkerReleasesAssociationOnFailure() throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2);
+        when(service.getFile(any(ArchiveInstanceLocator.class)))
+                .thenThrow(new IOException("File not found"));
+        doThrow(new InterruptedException())
+                .when(storeas2).waitForOutstandingRSP();
+        List<ArchiveInstanceLocator> series2 = series("2", 2);
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(concat(series("1", 1), series2));
+
+        fanOut.start(inline, storeas, 2, 0);
+        fanOut.awaitWorkers();
+
+        Assert.assertEquals(series2, scu.failed());
+        verify(storeas2).release();
+    }
+
+    @Test
+    public void testAwaitWorkersIsInterruptible() throws Exception {
+        when(localAE.connect(eq(remoteAE), any(AAssociateRQ.class)))
+                .thenReturn(storeas2);
+        CStoreSCUImpl.FanOut fanOut = scu.new FanOut(
+                concat(series("1", 1), series("2", 1)));
+        fanOut.start(deferred, storeas, 2, 0);
+
+        Thread.currentThread().interrupt();
+        try {
+            fanOut.awaitWorkers();
+            Assert.fail("InterruptedException expected");
+        } catch (InterruptedException expected) {
+        }
+
+        tasks.get(0).run();
+        fanOut.awaitWorkers();
+        verify(storeas2).release();
+    }
+
+    private static List<ArchiveInstanceLocator> series(String suid, int size) {
+        List<ArchiveInstanceLocator> series = new ArrayList<ArchiveInstanceLocator>(size);
+        for (int i = 1; i <= size; i++)
+            series.add(new ArchiveInstanceLocator.Builder(UID.CTImageStorage,
+                    suid + "." + i, UID.ImplicitVRLittleEndian)
+                    .seriesInstanceUID(suid)
+                    .build());
+        return series;
+    }
+
+    @SafeVarargs
+    private static List<ArchiveInstanceLocator> concat(
+            List<ArchiveInstanceLocator>... lists) {
+        List<ArchiveInstanceLocator> result = new ArrayList<ArchiveInstanceLocator>();
+        for (List<ArchiveInstanceLocator> list : lists)
+            result.addAll(list);
+        return result;
+    }
+
+    private static class TestCStoreSCU extends CStoreSCUImpl {
+
+        final TestWeightWatcher weightWatcher;
+
+        TestCStoreSCU(ApplicationEntity localAE, ApplicationEntity remoteAE,
+                CStoreSCUService service) {
+            this(localAE, remoteAE, service, new TestWeightWatcher());
+        }
+
+        private TestCStoreSCU(ApplicationEntity localAE, ApplicationEntity remoteAE,
+                CStoreSCUService service, TestWeightWatcher weightWatcher) {
+            super(localAE, remoteAE, ServiceType.MOVESERVICE, service, weightWatcher);
+            this.weightWatcher = weightWatcher;
+        }
+
+        List<ArchiveInstanceLocator> failed() {
+            return new ArrayList<ArchiveInstanceLocator>(failed);
+        }
+    }
+
+    private static class TestWeightWatcher implements WeightWatcher {
+
+        final List<MemoryConsumingTask<?>> executed =
+                new ArrayList<MemoryConsumingTask<?>>();
+
+        @Override
+        public synchronized <V> V execute(MemoryConsumingTask<V> task) throws Exception {
+            executed.add(task);
+            return task.call();
+        }
+    }
+}
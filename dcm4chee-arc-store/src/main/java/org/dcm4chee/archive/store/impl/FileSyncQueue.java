@@ -0,0 +1,212 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Syncs stored files of storage systems with
+ * {@link org.dcm4chee.storage.conf.SyncPolicy#AFTER_STORE_RSP} by a bounded
+ * pool of worker threads.
+ * <p>
+ * Files queued for the same storage system while a worker is busy are
+ * synced together by one {@link StorageService#syncFiles} call. If the
+ * number of queued files reaches the configured capacity, the storing thread
+ * is blocked until pending files are synced. The number of threads is only
+ * applied on the first use after (re)deployment.
+ */
+@ApplicationScoped
+public class FileSyncQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSyncQueue.class);
+
+    private static final class Batch {
+        final List<String> files = new ArrayList<String>();
+        final long queuedSince = System.nanoTime();
+    }
+
+    @Inject
+    private StorageService storageService;
+
+    @Inject
+    private Device device;
+
+    private ExecutorService executor;
+
+    private final Map<StorageSystem, Batch> pending = new HashMap<StorageSystem, Batch>();
+
+    private int queuedFiles;
+
+    private long syncCount;
+
+    private long syncedFiles;
+
+    private long totalSyncTime;
+
+    private long maxQueueTime;
+
+    public void syncFiles(StorageSystem system, List<String> files) {
+        if (files.isEmpty())
+            return;
+
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int capacity = arcDev.getFileSyncQueueCapacity();
+        synchronized (this) {
+            try {
+                while (queuedFiles > 0 && queuedFiles + files.size() > capacity)
+                    wait();
+                Batch batch = pending.get(system);
+                if (batch == null) {
+                    batch = new Batch();
+                    pending.put(system, batch);
+                    executor(arcDev).execute(new SyncTask(system));
+                }
+                batch.files.addAll(files);
+                queuedFiles += files.size();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // sync outside of the monitor, so queuing of other files is not blocked
+        LOG.info("Interrupted while waiting for free capacity - sync files immediately");
+        sync(system, files);
+    }
+
+    public synchronized int getQueuedFiles() {
+        return queuedFiles;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    public synchronized long getSyncedFiles() {
+        return syncedFiles;
+    }
+
+    /**
+     * @return average duration of one {@link StorageService#syncFiles} call in ms
+     */
+    public synchronized long getAverageSyncTime() {
+        return syncCount > 0 ? TimeUnit.NANOSECONDS.toMillis(totalSyncTime / syncCount) : 0L;
+    }
+
+    /**
+     * @return max time in ms between queuing and syncing of files
+     */
+    public synchronized long getMaxQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueTime);
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private ExecutorService executor(ArchiveDeviceExtension arcDev) {
+        if (executor == null)
+            executor = Executors.newFixedThreadPool(Math.max(1, arcDev.getFileSyncThreads()));
+        return executor;
+    }
+
+    private void sync(StorageSystem system, List<String> files) {
+        try {
+            storageService.syncFiles(system, files);
+        } catch (IOException e) {
+            LOG.error("File syncing failed:", e);
+        }
+    }
+
+    private final class SyncTask implements Runnable {
+
+        private final StorageSystem system;
+
+        SyncTask(StorageSystem system) {
+            this.system = system;
+        }
+
+        @Override
+        public void run() {
+            Batch batch;
+            synchronized (FileSyncQueue.this) {
+                batch = pending.remove(system);
+            }
+            int size = batch.files.size();
+            long start = System.nanoTime();
+            long end = start;
+            try {
+                sync(system, batch.files);
+                end = System.nanoTime();
+            } finally {
+                synchronized (FileSyncQueue.this) {
+                    queuedFiles -= size;
+                    syncCount++;
+                    syncedFiles += size;
+                    totalSyncTime += end - start;
+                    maxQueueTime = Math.max(maxQueueTime, start - batch.queuedSince);
+                    FileSyncQueue.this.notifyAll();
+                }
+            }
+            LOG.debug("Synced {} files of {} in {} ms - {} files still queued",
+                    size, system, TimeUnit.NANOSECONDS.toMillis(end - start), getQueuedFiles());
+        }
+    }
+}
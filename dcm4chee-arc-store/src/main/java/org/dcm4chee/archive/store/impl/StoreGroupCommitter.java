@@ -0,0 +1,179 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Status;
+
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.util.TransactionSynchronization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects store contexts which are ready to be persisted from all concurrent
+ * associations and persists them in one transaction (group commit).
+ * <p>
+ * The first caller that finds no pending group commit becomes the leader: it
+ * waits until either <code>maxSize</code> contexts are collected or
+ * <code>maxDelay</code> ms have passed, and then persists the collected contexts
+ * in one transaction on behalf of all waiting callers. Each caller returns only
+ * after the transaction containing its own context has been committed. If the
+ * group commit fails, each caller has to persist its context separately, so
+ * retries on constraint violations stay per instance.
+ */
+@ApplicationScoped
+public class StoreGroupCommitter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StoreGroupCommitter.class);
+
+    private static final class Entry {
+        final StoreContext context;
+        boolean done;
+        boolean committed;
+
+        Entry(StoreContext context) {
+            this.context = context;
+        }
+    }
+
+    @Inject
+    private StoreServiceEJB storeServiceEJB;
+
+    @Inject
+    private TransactionSynchronization transaction;
+
+    private final LinkedList<Entry> pending = new LinkedList<Entry>();
+
+    private boolean leaderActive;
+
+    /**
+     * Persists the store context together with concurrently received objects.
+     *
+     * @return <code>true</code> if the context was persisted and committed,
+     *         <code>false</code> if the caller has to persist it separately
+     */
+    public boolean updateDB(StoreContext context, int maxSize, int maxDelay) {
+        if (maxSize <= 1 || transaction.getStatus() != Status.STATUS_NO_TRANSACTION)
+            return false;
+
+        Entry entry = new Entry(context);
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                List<Entry> batch;
+                synchronized (pending) {
+                    if (!entry.done && !pending.contains(entry)) {
+                        pending.add(entry);
+                        pending.notifyAll();
+                    }
+                    while (!entry.done && leaderActive) {
+                        try {
+                            pending.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                            if (pending.remove(entry))
+                                return false;
+                        }
+                    }
+                    if (entry.done)
+                        return entry.committed;
+
+                    leaderActive = true;
+                    batch = collect(maxSize, maxDelay);
+                }
+                commit(batch);
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Entry> collect(int maxSize, int maxDelay) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        long remaining;
+        while (pending.size() < maxSize
+                && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+            } catch (InterruptedException e) {
+                // do not leave the waiting callers without leader
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int n = Math.min(pending.size(), maxSize);
+        List<Entry> batch = new ArrayList<Entry>(n);
+        for (int i = 0; i < n; i++)
+            batch.add(pending.removeFirst());
+        return batch;
+    }
+
+    private void commit(List<Entry> batch) {
+        List<StoreContext> contexts = new ArrayList<StoreContext>(batch.size());
+        for (Entry entry : batch)
+            contexts.add(entry.context);
+
+        boolean committed = false;
+        try {
+            storeServiceEJB.updateDB(contexts);
+            committed = true;
+            LOG.debug("Group commit of {} received objects", contexts.size());
+        } catch (RuntimeException e) {
+            LOG.info("Group commit of {} received objects failed - persist each object separately: {}",
+                    contexts.size(), e.getMessage());
+        } finally {
+            synchronized (pending) {
+                for (Entry entry : batch) {
+                    entry.committed = committed;
+                    entry.done = true;
+                }
+                leaderActive = false;
+                pending.notifyAll();
+            }
+        }
+    }
+}
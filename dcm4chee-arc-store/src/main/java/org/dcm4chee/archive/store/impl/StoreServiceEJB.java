@@ -65,6 +65,7 @@ import org.dcm4chee.storage.conf.StorageSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
@@ -118,19 +119,26 @@ public class StoreServiceEJB {
         context.setInstance(instance);
 
         // flush and then clean derived study/series fields, to make sure that it happens "after" in the transaction
-        // (otherwise there was a race-condition that a concurrent calculation of derived fields using an old state was able to persist)
+        // (otherwise there was a race-condition that a concurrent calculation of derived fields using an old state was able to persist).
+        // A new instance is added to the derived fields incrementally instead, which also increments the version of
+        // the series and the study, so a concurrent calculation, which did not see the new instance, is discarded.
         em.flush();
-        em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES).setParameter(1, instance.getSeries().getPk()).executeUpdate();
-        em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, instance.getSeries().getStudy().getPk()).executeUpdate();
+        boolean newInstance = context.getStoreAction() == StoreAction.STORE;
+        if (!newInstance) {
+            em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES).setParameter(1, instance.getSeries().getPk()).executeUpdate();
+            em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, instance.getSeries().getStudy().getPk()).executeUpdate();
+        }
 
         if (context.getStoreAction() != StoreAction.IGNORE &&
                 context.getStoreAction() != StoreAction.UPDATEDB) {
+            boolean locationCreated = false;
             try {
                 findOrCreateStudyOnStorageGroup(context);
                 Future<StorageContext> metadataContextFuture = context.getMetadataContext();
                 if (metadataContextFuture != null && metadataContextFuture.get() != null) {
                     Location metadata = createMetadataLocation(context);
                     metadata.addInstance(instance);
+                    locationCreated = true;
                 }
 
                 Future<StorageContext> bulkdataContextFuture = context.getBulkdataContext();
@@ -138,6 +146,7 @@ public class StoreServiceEJB {
                     Location bulkdata = createBulkdataLocation(context);
                     bulkdata.addInstance(instance);
                     context.setFileRef(bulkdata);
+                    locationCreated = true;
 
                     updateRetrieveAETs(session, instance);
                     updateAvailability(session, instance);
@@ -146,11 +155,33 @@ public class StoreServiceEJB {
             } catch (Exception e) {
                 throw new DicomServiceException(Status.UnableToProcess, e);
             }
+
+            // a new instance is added to the derived study/series fields incrementally, instead of cleaning them
+            if (newInstance && locationCreated) {
+                em.flush();
+                QueryAttributesUpdater.onStore(em, instance,
+                        device.getDeviceExtension(ArchiveDeviceExtension.class));
+            }
         }
 
         calculateImplicitlyCoercedAttributes(context);
     }
 
+    /**
+     * Persists the received objects of several store contexts within one
+     * transaction. If the update of one object fails, the whole transaction is
+     * rolled back and the caller is expected to retry each object separately.
+     */
+    public void updateDB(List<StoreContext> contexts) {
+        for (StoreContext context : contexts) {
+            try {
+                updateDB(context);
+            } catch (DicomServiceException e) {
+                throw new EJBException(e);
+            }
+        }
+    }
+
     private void calculateImplicitlyCoercedAttributes(StoreContext context) {
         Instance instance = context.getInstance();
         Series series = instance.getSeries();
@@ -218,6 +249,7 @@ public class StoreServiceEJB {
                 storeParam.getFuzzyStr(), storeParam.getNullValueForQueryFields());
         //update time on db
         updateSeriesTime(series, device, context);
+        QueryAttributesUpdater.onCreateSeries(series);
         em.persist(series);
         LOG.info("{}: Create {}", session, series);
         return series;
@@ -94,6 +94,7 @@ import org.dcm4chee.archive.entity.Patient;
 import org.dcm4chee.archive.entity.Series;
 import org.dcm4chee.archive.entity.Study;
 import org.dcm4chee.archive.entity.Utils;
+import org.dcm4chee.archive.locationmgmt.DeleterService;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
 import org.dcm4chee.archive.monitoring.api.Monitored;
 import org.dcm4chee.archive.patient.PatientSelectorFactory;
@@ -129,6 +130,12 @@ public class StoreServiceImpl implements StoreService {
     @Inject
     private StoreServiceEJB storeServiceEJB;
 
+    @Inject
+    private StoreGroupCommitter groupCommitter;
+
+    @Inject
+    private FileSyncQueue fileSyncQueue;
+
     @Inject
     private StorageService storageService;
 
@@ -144,6 +151,9 @@ public class StoreServiceImpl implements StoreService {
     @Inject
     private LocationMgmt locationManager;
 
+    @Inject
+    private DeleterService deleterService;
+
     @Inject
     private MemoryOrFileSpooler memoryOrfileSpooler;
 
@@ -390,6 +400,9 @@ public class StoreServiceImpl implements StoreService {
             // updates
             service.updateDB(context);
 
+            if (context.getFileRef() != null)
+                deleterService.onLocationStored(context.getFileRef());
+
         } catch (DicomServiceException e) {
             context.setStoreAction(StoreAction.FAIL);
             context.setThrowable(e);
@@ -530,6 +543,13 @@ public class StoreServiceImpl implements StoreService {
     @Override
     public void updateDB(final StoreContext context) throws DicomServiceException {
 
+        ArchiveDeviceExtension arcDev = device.getDeviceExtension(ArchiveDeviceExtension.class);
+        if (groupCommitter.updateDB(context,
+                arcDev.getStoreGroupCommitMaxSize(), arcDev.getStoreGroupCommitMaxDelay())) {
+            logCoercedAttributes(context);
+            return;
+        }
+
         // try to call updateDB, eventually retries
         retry.retry(new RetryBean.Retryable<Void, DicomServiceException>() {
             @Override
@@ -950,15 +970,10 @@ public class StoreServiceImpl implements StoreService {
                     storageService. syncFiles(system, storedFiles);
                     break;
                 case AFTER_STORE_RSP:
-                    Executors.newSingleThreadExecutor().execute(new Runnable() {
-                        public void run() {
-                            try {
-                                storageService.syncFiles(system,storedFiles);
-                            } catch (IOException e) {
-                                LOG.error("File syncing failed:", e);
-                            }
-                        }
-                    });
+                    // hand over a snapshot, the session continues to collect stored files
+                    List<String> files = new ArrayList<String>(storedFiles);
+                    storedFiles.clear();
+                    fileSyncQueue.syncFiles(system, files);
                     break;
                 case EVERY_5_STORE:
                     if (storedFiles.size()>=5 || onClose)
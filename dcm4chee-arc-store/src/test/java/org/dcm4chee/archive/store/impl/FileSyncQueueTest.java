@@ -0,0 +1,251 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests {@link FileSyncQueue} with one sync worker against a mocked
+ * {@link StorageService}, which blocks the first sync until released.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FileSyncQueueTest {
+
+    private static final long TIMEOUT = 10000L;
+
+    @Mock
+    private StorageService storageService;
+
+    @Spy
+    private Device device = new Device("file-sync-queue-test");
+
+    @InjectMocks
+    private FileSyncQueue queue;
+
+    private final ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+
+    private final StorageSystem system = new StorageSystem();
+
+    private final List<List<String>> synced =
+            Collections.synchronizedList(new ArrayList<List<String>>());
+
+    private final CountDownLatch syncing = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final CountDownLatch callerSyncing = new CountDownLatch(1);
+
+    private volatile boolean failFirstSync;
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() throws IOException {
+        arcDev.setFileSyncThreads(1);
+        arcDev.setFileSyncQueueCapacity(100);
+        device.addDeviceExtension(arcDev);
+        doAnswer(new Answer<Void>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                boolean interrupted = Thread.interrupted();
+                synced.add(new ArrayList<String>((List<String>) invocation.getArguments()[1]));
+                if (interrupted) {
+                    // synced by the interrupted caller instead of the worker
+                    callerSyncing.countDown();
+                    release.await();
+                    Thread.currentThread().interrupt();
+                } else if (syncing.getCount() > 0) {
+                    syncing.countDown();
+                    release.await();
+                    if (failFirstSync)
+                        throw new IOException("sync failed");
+                }
+                return null;
+            }
+        }).when(storageService).syncFiles(any(StorageSystem.class), anyListOf(String.class));
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        queue.destroy();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFilesQueuedWhileSyncingAreSyncedTogether() throws Exception {
+        queue.syncFiles(system, Arrays.asList("a"));
+        Assert.assertTrue(syncing.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        queue.syncFiles(system, Arrays.asList("b"));
+        queue.syncFiles(system, Arrays.asList("c"));
+        Assert.assertEquals(3, queue.getQueuedFiles());
+
+        release.countDown();
+        awaitSyncedFiles(3);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c")), synced);
+        Assert.assertEquals(2, queue.getSyncCount());
+        Assert.assertEquals(3, queue.getSyncedFiles());
+        Assert.assertEquals(0, queue.getQueuedFiles());
+    }
+
+    @Test
+    public void testCallerBlockedWhileCapacityExceeded() throws Exception {
+        arcDev.setFileSyncQueueCapacity(2);
+        queue.syncFiles(system, Arrays.asList("a"));
+        Assert.assertTrue(syncing.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        queue.syncFiles(system, Arrays.asList("b"));
+
+        Thread caller = syncFilesAsync("c");
+        awaitWaiting(caller);
+        Assert.assertEquals(2, queue.getQueuedFiles());
+
+        release.countDown();
+        caller.join(TIMEOUT);
+        Assert.assertFalse(caller.isAlive());
+        awaitSyncedFiles(3);
+        Assert.assertEquals(0, queue.getQueuedFiles());
+    }
+
+    @Test
+    public void testInterruptedCallerSyncsWithoutBlockingQueue() throws Exception {
+        arcDev.setFileSyncQueueCapacity(1);
+        queue.syncFiles(system, Arrays.asList("a"));
+        Assert.assertTrue(syncing.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        final AtomicBoolean interruptRestored = new AtomicBoolean();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                queue.syncFiles(system, Arrays.asList("b"));
+                interruptRestored.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        caller.start();
+        awaitWaiting(caller);
+        caller.interrupt();
+        Assert.assertTrue(callerSyncing.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // the queue must not be locked while the interrupted caller syncs
+        int queued = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return queue.getQueuedFiles();
+            }
+        }).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, queued);
+
+        release.countDown();
+        caller.join(TIMEOUT);
+        Assert.assertTrue(interruptRestored.get());
+        awaitSyncedFiles(1);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), synced);
+    }
+
+    @Test
+    public void testFailedSyncDoesNotStopQueue() throws Exception {
+        failFirstSync = true;
+        queue.syncFiles(system, Arrays.asList("a"));
+        Assert.assertTrue(syncing.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        queue.syncFiles(system, Arrays.asList("b"));
+
+        release.countDown();
+        awaitSyncedFiles(2);
+        Assert.assertEquals(0, queue.getQueuedFiles());
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), synced);
+    }
+
+    private Thread syncFilesAsync(final String file) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                queue.syncFiles(system, Arrays.asList(file));
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private void awaitSyncedFiles(long files) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (queue.getSyncedFiles() < files) {
+            Assert.assertTrue("Files not synced", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (thread.getState() != Thread.State.WAITING) {
+            Assert.assertTrue("Thread not waiting", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.transaction.Status;
+
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.util.TransactionSynchronization;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests {@link StoreGroupCommitter} with concurrent callers against a mocked
+ * {@link StoreServiceEJB}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StoreGroupCommitterTest {
+
+    private static final int MAX_DELAY = 10000;
+
+    @Mock
+    private StoreServiceEJB storeServiceEJB;
+
+    @Mock
+    private TransactionSynchronization transaction;
+
+    @InjectMocks
+    private StoreGroupCommitter committer;
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        when(transaction.getStatus()).thenReturn(Status.STATUS_NO_TRANSACTION);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testNoGroupCommitWithinTransaction() {
+        when(transaction.getStatus()).thenReturn(Status.STATUS_ACTIVE);
+        Assert.assertFalse(committer.updateDB(mock(StoreContext.class), 2, MAX_DELAY));
+        verifyZeroInteractions(storeServiceEJB);
+    }
+
+    @Test
+    public void testNoGroupCommitForMaxSizeOne() {
+        Assert.assertFalse(committer.updateDB(mock(StoreContext.class), 1, MAX_DELAY));
+        verifyZeroInteractions(storeServiceEJB);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testConcurrentContextsCommittedInOneTransaction() throws Exception {
+        List<Future<Boolean>> results = updateDBConcurrently(4, 4);
+        for (Future<Boolean> result : results)
+            Assert.assertTrue(result.get(MAX_DELAY, TimeUnit.MILLISECONDS));
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(storeServiceEJB).updateDB(batch.capture());
+        Assert.assertEquals(4, batch.getValue().size());
+    }
+
+    @Test
+    public void testFailedGroupCommitPersistsEachContextSeparately() throws Exception {
+        doThrow(new IllegalStateException("constraint violation"))
+                .when(storeServiceEJB).updateDB(anyListOf(StoreContext.class));
+
+        List<Future<Boolean>> results = updateDBConcurrently(2, 2);
+        for (Future<Boolean> result : results)
+            Assert.assertFalse(result.get(MAX_DELAY, TimeUnit.MILLISECONDS));
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testCommitAfterMaxDelay() {
+        long start = System.nanoTime();
+        Assert.assertTrue(committer.updateDB(mock(StoreContext.class), 10, 100));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(storeServiceEJB).updateDB(batch.capture());
+        Assert.assertEquals(1, batch.getValue().size());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testInterruptedWaitingCallerPersistsContextSeparately() throws Exception {
+        final CountDownLatch committing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                committing.countDown();
+                release.await();
+                return null;
+            }
+        }).when(storeServiceEJB).updateDB(anyListOf(StoreContext.class));
+
+        StoreContext leaderContext = mock(StoreContext.class);
+        Future<Boolean> leader = updateDBAsync(leaderContext, 2, 0);
+        Assert.assertTrue(committing.await(MAX_DELAY, TimeUnit.MILLISECONDS));
+
+        final AtomicBoolean waitingResult = new AtomicBoolean(true);
+        final AtomicBoolean interruptRestored = new AtomicBoolean();
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                waitingResult.set(committer.updateDB(mock(StoreContext.class), 2, 0));
+                interruptRestored.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        waiting.start();
+        awaitWaiting(waiting);
+        waiting.interrupt();
+        waiting.join(MAX_DELAY);
+
+        Assert.assertFalse(waitingResult.get());
+        Assert.assertTrue(interruptRestored.get());
+
+        release.countDown();
+        Assert.assertTrue(leader.get(MAX_DELAY, TimeUnit.MILLISECONDS));
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(storeServiceEJB).updateDB(batch.capture());
+        Assert.assertEquals(1, batch.getValue().size());
+        Assert.assertSame(leaderContext, batch.getValue().get(0));
+    }
+
+    private List<Future<Boolean>> updateDBConcurrently(int n, int maxSize) {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(n);
+        for (int i = 0; i < n; i++)
+            results.add(updateDBAsync(mock(StoreContext.class), maxSize, MAX_DELAY));
+        return results;
+    }
+
+    private Future<Boolean> updateDBAsync(final StoreContext context,
+            final int maxSize, final int maxDelay) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return committer.updateDB(context, maxSize, maxDelay);
+            }
+        });
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MAX_DELAY;
+        while (thread.getState() != Thread.State.WAITING) {
+            Assert.assertTrue("Thread not waiting", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -38,16 +38,26 @@
 
 package org.dcm4chee.archive.stow.client;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
@@ -66,6 +76,14 @@ public class StowClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(
             StowClient.class);
+
+    private static final int MAX_INSTANCES_PER_REQUEST = 100;
+
+    private static final long MAX_BYTES_PER_REQUEST = 256L * 1024 * 1024;
+
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
     
     private StowClientService service;
     private StowContext context;
@@ -76,21 +94,73 @@ public class StowClient {
         this.context = context; 
     }
 
+    /**
+     * Sends the instances in batches, limited by {@link #MAX_INSTANCES_PER_REQUEST}
+     * and {@link #MAX_BYTES_PER_REQUEST}, each by one multipart/related
+     * request. Up to {@link #MAX_PARALLEL_REQUESTS} batches are sent in
+     * parallel.
+     */
     public StowResponse storeOverWebService( String transactionID
             , Collection<ArchiveInstanceLocator> instances) {
 
-        ArrayList<String> failedInstances = new ArrayList<String>();
-        ArrayList<String> successfulInstances = new ArrayList<String>();
-        String aeTitle = context.getRemoteAE().getAETitle();
-        String url = adjustToStowURL(aeTitle, context.getStowRemoteBaseURL());
+        final ArrayList<String> failedInstances = new ArrayList<String>();
+        final ArrayList<String> successfulInstances = new ArrayList<String>();
+        final String aeTitle = context.getRemoteAE().getAETitle();
+        final String url = adjustToStowURL(aeTitle, context.getStowRemoteBaseURL());
+        final ConcurrentLinkedQueue<List<ArchiveInstanceLocator>> batches =
+                new ConcurrentLinkedQueue<List<ArchiveInstanceLocator>>();
+        List<ArchiveInstanceLocator> batch = null;
+        long batchSize = 0L;
         for(ArchiveInstanceLocator inst : instances) {
-            
-            try{
-            storeOverWebService(aeTitle, url, inst);
-            successfulInstances.add(inst.iuid);
+            long size = inst.getFile().length();
+            if (batch == null || batch.size() == MAX_INSTANCES_PER_REQUEST
+                    || batchSize > 0 && batchSize + size > MAX_BYTES_PER_REQUEST) {
+                batch = new ArrayList<ArchiveInstanceLocator>();
+                batches.add(batch);
+                batchSize = 0L;
             }
-            catch(IOException e) {
-                failedInstances.add(inst.iuid);
+            batch.add(inst);
+            batchSize += size;
+        }
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                List<ArchiveInstanceLocator> batch;
+                while ((batch = batches.poll()) != null) {
+                    ArrayList<String> failed = new ArrayList<String>();
+                    ArrayList<String> successful = new ArrayList<String>();
+                    try {
+                        storeOverWebService(aeTitle, url, batch, successful, failed);
+                    } catch (IOException e) {
+                        LOG.error("Failed to store {} instances to {}",
+                                batch.size(), aeTitle, e);
+                        successful.clear();
+                        failed.clear();
+                        for (ArchiveInstanceLocator inst : batch)
+                            failed.add(inst.iuid);
+                    }
+                    synchronized (successfulInstances) {
+                        successfulInstances.addAll(successful);
+                        failedInstances.addAll(failed);
+                    }
+                }
+            }
+        };
+        int parallel = Math.min(batches.size(), MAX_PARALLEL_REQUESTS);
+        Executor executor = context.getLocalAE().getDevice().getExecutor();
+        List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>(parallel);
+        for (int i = 1; i < parallel; i++) {
+            FutureTask<Void> task = new FutureTask<Void>(worker, null);
+            executor.execute(task);
+            workers.add(task);
+        }
+        worker.run();
+        for (FutureTask<Void> task : workers) {
+            try {
+                task.get();
+            } catch (Exception e) {
+                LOG.error("STOW worker failed", e);
             }
         }
         StowResponse response = new StowResponse(transactionID
@@ -99,81 +169,127 @@ public class StowClient {
 
     }
 
-    private boolean storeOverWebService(String aeTitle, String url
-            , ArchiveInstanceLocator inst)
+    /**
+     * Streams the instances of the batch with chunked transfer encoding and
+     * maps the result of each instance from the Referenced SOP Sequence and
+     * Failed SOP Sequence of the response. Instances not contained in the
+     * response are successful, if the response status is 200 (OK). The
+     * connection is not disconnected, so it is kept alive for the next
+     * request.
+     * <p>
+     * The data sets - with bulk data referenced by URI - are read and coerced
+     * before the request is sent, so an instance which cannot be read is
+     * only failed by itself and not sent, instead of failing the batch.
+     */
+    private void storeOverWebService(String aeTitle, String url
+            , List<ArchiveInstanceLocator> insts
+            , List<String> successful, List<String> failed)
             throws IOException {
 
-        HttpURLConnection connection = null;;
-        int rspCode = 0;
-        
+        List<ArchiveInstanceLocator> readable =
+                new ArrayList<ArchiveInstanceLocator>(insts.size());
+        List<Attributes> datasets = new ArrayList<Attributes>(insts.size());
+        for (ArchiveInstanceLocator inst : insts) {
+            try {
+                datasets.add(readDataset(inst));
+                readable.add(inst);
+            } catch (IOException e) {
+                LOG.warn("Failed to read {} - skip instance {} of batch to {}",
+                        inst.getFile(), inst.iuid, aeTitle, e);
+                failed.add(inst.iuid);
+            }
+        }
+        if (readable.isEmpty())
+            return;
+
+        URL stowURL = new URL(url);
+        String boundary = generateBoundary();
+        HttpURLConnection connection = setupStowConnection(boundary, stowURL);
         try {
-            URL stowURL = new URL(url);
-            
-            String boundary = generateBoundary();
-            
-            connection = setupStowConnection(boundary, stowURL);
-            
-            writeRequest(inst, boundary, getConnectionOutputStream(boundary
-                    , connection));
-            
-            rspCode = connection.getResponseCode();
-            
-            logResponse(aeTitle, connection);
+            DataOutputStream wr = new DataOutputStream(
+                    new BufferedOutputStream(connection.getOutputStream()));
+            for (int i = 0; i < readable.size(); i++)
+                writePart(readable.get(i), datasets.get(i), boundary, wr);
+            wr.writeBytes("\r\n--" + boundary + "--\r\n");
+            wr.close();
+
+            int rspCode = connection.getResponseCode();
+            Attributes rsp = readResponse(aeTitle, connection, rspCode);
+            Set<String> referenced = sopInstanceUIDs(rsp, Tag.ReferencedSOPSequence);
+            Set<String> failedSOPs = sopInstanceUIDs(rsp, Tag.FailedSOPSequence);
+            for (ArchiveInstanceLocator inst : readable) {
+                if (referenced.contains(inst.iuid))
+                    successful.add(inst.iuid);
+                else if (failedSOPs.contains(inst.iuid)
+                        || rspCode != HttpURLConnection.HTTP_OK)
+                    failed.add(inst.iuid);
+                else
+                    successful.add(inst.iuid);
+            }
         } catch (IOException e) {
-            LOG.error("error writing to http data output stream"
-                    + e.getStackTrace().toString());
-            throw new IOException("Error while performing stow to " + aeTitle + e);
-        }
-        finally {
             connection.disconnect();
+            throw new IOException("Error while performing stow to " + aeTitle, e);
         }
-
-        return rspCode == 200 ? true : false;
     }
 
-
-    private void logResponse(String aeTitle, HttpURLConnection connection) {
+    private Attributes readResponse(String aeTitle,
+            HttpURLConnection connection, int rspCode) {
+        InputStream in = null;
         try {
+            in = rspCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream()
+                    : connection.getErrorStream();
+            if (in == null)
+                return null;
+            Attributes rsp = SAXReader.parse(in);
             if(LOG.isDebugEnabled())
                 LOG.debug("Stowrs response received from {} : \n {}"
-                        ,aeTitle, SAXReader.parse(
-                                connection.getInputStream()).toString());
+                        ,aeTitle, rsp);
+            return rsp;
         } catch (Exception e) {
             LOG.error("Error creating response attributes, {}",e);
+            return null;
+        } finally {
+            SafeClose.close(in);
         }
     }
 
-    private void writeRequest(ArchiveInstanceLocator inst
-            , String boundary, DataOutputStream wr)
+    private static Set<String> sopInstanceUIDs(Attributes rsp, int seqTag) {
+        Set<String> uids = new HashSet<String>();
+        Sequence seq = rsp != null ? rsp.getSequence(seqTag) : null;
+        if (seq != null)
+            for (Attributes item : seq)
+                uids.add(item.getString(Tag.ReferencedSOPInstanceUID));
+        return uids;
+    }
+
+    private Attributes readDataset(ArchiveInstanceLocator inst)
             throws IOException {
         DicomInputStream dis = new DicomInputStream(
                 inst.getFile());
         try {
             dis.setIncludeBulkData(IncludeBulkData.URI);
             Attributes dataset = dis.readDataset(-1, -1);
-             service.coerceAttributes(dataset, context);
+            service.coerceAttributes(dataset, context);
             dataset.addAll((Attributes) inst.getObject());
-            Attributes fmi = dataset.createFileMetaInformation(inst.tsuid);
-            @SuppressWarnings("resource")
-            DicomOutputStream dos = new DicomOutputStream(wr,
-                    UID.ExplicitVRLittleEndian);
-            dos.writeDataset(fmi, dataset);
-            wr.writeBytes("\r\n--" + boundary + "--\r\n");
-            wr.flush();
-            wr.close();
+            return dataset;
         } finally {
             SafeClose.close(dis);
         }
     }
 
-    private DataOutputStream getConnectionOutputStream(String boundary,
-            HttpURLConnection connection) throws IOException {
-        DataOutputStream wr;
-        wr = new DataOutputStream(connection.getOutputStream());
+    private void writePart(ArchiveInstanceLocator inst, Attributes dataset
+            , String boundary, DataOutputStream wr)
+            throws IOException {
+        Attributes fmi = dataset.createFileMetaInformation(inst.tsuid);
         wr.writeBytes("\r\n--" + boundary + "\r\n");
         wr.writeBytes("Content-Type: application/dicom \r\n");
         wr.writeBytes("\r\n");
-        return wr;
+        @SuppressWarnings("resource")
+        DicomOutputStream dos = new DicomOutputStream(wr,
+                UID.ExplicitVRLittleEndian);
+        dos.writeDataset(fmi, dataset);
+        dos.flush();
     }
 
     private String generateBoundary() {
@@ -195,6 +311,7 @@ public class StowClient {
         connection.setRequestProperty("Accept", "application/dicom+xml");
         connection.setRequestProperty("charset", "utf-8");
         connection.setUseCaches(false);
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
         return connection;
     }
 
@@ -37,9 +37,18 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.wado;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
@@ -63,6 +72,11 @@ public class BulkDataOutput implements StreamingOutput {
     @Override
     public void write(OutputStream out) throws IOException,
             WebApplicationException {
+        Path path = toPath(bulkData.uriWithoutQuery());
+        if (path != null) {
+            transferFrom(path, out);
+            return;
+        }
         InputStream in = bulkData.openStream();
         try {
             StreamUtils.copy(in, out, bulkData.length());
@@ -71,4 +85,35 @@ public class BulkDataOutput implements StreamingOutput {
         }
     }
 
+    private static Path toPath(String uri) {
+        if (!uri.startsWith("file:"))
+            return null;
+        try {
+            return Paths.get(new URI(uri));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            // not a valid file URI, read it by BulkData.openStream()
+            return null;
+        }
+    }
+
+    /**
+     * Transfers the byte range directly from the file channel, without
+     * copying it through an intermediate input stream.
+     */
+    private void transferFrom(Path path, OutputStream out) throws IOException {
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            // do not close the channel, it would close the output stream
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = bulkData.offset();
+            long remaining = bulkData.length();
+            while (remaining > 0) {
+                long transferred = fc.transferTo(position, remaining, target);
+                if (transferred <= 0)
+                    throw new EOFException();
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
 }
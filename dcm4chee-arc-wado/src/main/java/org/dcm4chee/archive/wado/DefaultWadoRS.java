@@ -37,7 +37,6 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.wado;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
@@ -130,6 +129,9 @@ public class DefaultWadoRS extends Wado implements WadoRS {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private PixelDataIndex pixelDataIndex;
+
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
     private static final int STATUS_NOT_ACCEPTABLE = 406;
@@ -788,13 +790,10 @@ public class DefaultWadoRS extends Wado implements WadoRS {
         try {
             LOG.info("Add Pixel Data [file={}]",fileURI);
 
-            DatasetWithFMI datasetWithFMI;
-            String transferSyntaxUID;
-            try (DicomInputStream din = new DicomInputStream(new File(new URI(fileURI)))) {
-                din.setIncludeBulkData(IncludeBulkData.URI);
-                datasetWithFMI = din.readDatasetWithFMI();
-                transferSyntaxUID = din.getTransferSyntax();
-            }
+            // parsed header and fragment offsets are kept for subsequent frame requests
+            PixelDataIndex.Entry indexEntry = pixelDataIndex.get(fileURI);
+            DatasetWithFMI datasetWithFMI = indexEntry.getDatasetWithFMI();
+            String transferSyntaxUID = indexEntry.getTransferSyntaxUID();
 
             // note: un-coerced SOPInstanceUID! (could be QCed, or whatever)
             String uncoercedIuid = datasetWithFMI.getDataset().getString(Tag.SOPInstanceUID);
@@ -0,0 +1,154 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.DatasetWithFMI;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+
+/**
+ * Keeps the parsed header of recently retrieved files, including the offsets
+ * and lengths of the Pixel Data fragments or of the native Pixel Data, so
+ * that subsequent WADO-RS frame requests for the same instance can read the
+ * requested byte ranges directly, without reparsing the file. Each request
+ * gets its own copy of the parsed header.
+ * <p>
+ * An entry is reparsed if the last modification time or the size of the file
+ * changed. The number of entries is limited by
+ * {@link ArchiveDeviceExtension#getWadoPixelDataIndexMaxEntries()}.
+ */
+@ApplicationScoped
+public class PixelDataIndex {
+
+    public static final class Entry {
+
+        private final DatasetWithFMI datasetWithFMI;
+        private final String transferSyntaxUID;
+        private final long lastModified;
+        private final long length;
+
+        Entry(DatasetWithFMI datasetWithFMI, String transferSyntaxUID,
+                long lastModified, long length) {
+            this.datasetWithFMI = datasetWithFMI;
+            this.transferSyntaxUID = transferSyntaxUID;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        /**
+         * Returns a copy of the parsed header for each request, because
+         * reading values from {@link Attributes} may decode and replace them,
+         * which must not happen concurrently on the shared instance.
+         */
+        public synchronized DatasetWithFMI getDatasetWithFMI() {
+            Attributes fmi = datasetWithFMI.getFileMetaInformation();
+            return new DatasetWithFMI(
+                    fmi != null ? new Attributes(fmi) : null,
+                    new Attributes(datasetWithFMI.getDataset()));
+        }
+
+        public String getTransferSyntaxUID() {
+            return transferSyntaxUID;
+        }
+    }
+
+    @Inject
+    private Device device;
+
+    private volatile int maxEntries;
+
+    private final Map<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+
+    public Entry get(String fileURI) throws IOException, URISyntaxException {
+        File file = new File(new URI(fileURI));
+        long lastModified = file.lastModified();
+        if (lastModified == 0L)
+            throw new FileNotFoundException(file.getPath());
+
+        long length = file.length();
+        maxEntries = device.getDeviceExtension(ArchiveDeviceExtension.class)
+                .getWadoPixelDataIndexMaxEntries();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(fileURI);
+        }
+        if (entry != null && entry.lastModified == lastModified && entry.length == length)
+            return entry;
+
+        entry = parse(file, lastModified, length);
+        synchronized (entries) {
+            if (maxEntries > 0)
+                entries.put(fileURI, entry);
+            else
+                entries.clear();
+        }
+        return entry;
+    }
+
+    private static Entry parse(File file, long lastModified, long length) throws IOException {
+        try (DicomInputStream din = new DicomInputStream(file)) {
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            DatasetWithFMI datasetWithFMI = din.readDatasetWithFMI();
+            return new Entry(datasetWithFMI, din.getTransferSyntax(), lastModified, length);
+        }
+    }
+}
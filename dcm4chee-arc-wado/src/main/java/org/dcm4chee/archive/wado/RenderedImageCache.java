@@ -0,0 +1,403 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk cache for images rendered by WADO-URI.
+ * <p>
+ * Images are cached in {@link ArchiveDeviceExtension#getWadoRenderedImageCacheDirectoryPath()},
+ * keyed by the SOP Instance UID and all request parameters which affect the
+ * rendered image. The index of cached images is kept in memory, images cached
+ * by a previous run are removed on first use. If the total size exceeds
+ * {@link ArchiveDeviceExtension#getWadoRenderedImageCacheMaxSize()}, least
+ * recently used images are removed. Images of studies, series or instances
+ * affected by QC or rejection are removed by {@link RenderedImageCacheInvalidator}.
+ */
+@ApplicationScoped
+public class RenderedImageCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderedImageCache.class);
+
+    private static final String FILE_SUFFIX = ".img";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+
+    private static final class Entry {
+        final Path file;
+        final long size;
+        final String studyUID;
+        final String seriesUID;
+        final String iuid;
+
+        Entry(Path file, long size, String studyUID, String seriesUID, String iuid) {
+            this.file = file;
+            this.size = size;
+            this.studyUID = studyUID;
+            this.seriesUID = seriesUID;
+            this.iuid = iuid;
+        }
+    }
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long totalSize;
+
+    private Path directory;
+
+    // images rendered before an invalidation are not added to the cache
+    private long invalidations;
+
+    public boolean isEnabled() {
+        return arcDev().getWadoRenderedImageCacheDirectoryPath() != null;
+    }
+
+    /**
+     * @return the cached image, or <code>null</code> if it is not cached
+     */
+    public StreamingOutput get(String key) {
+        Entry entry;
+        synchronized (this) {
+            if (directory() == null)
+                return null;
+            entry = entries.get(key);
+        }
+        if (entry == null)
+            return null;
+
+        try {
+            final FileChannel fc = FileChannel.open(entry.file, StandardOpenOption.READ);
+            return new StreamingOutput() {
+                @Override
+                public void write(OutputStream out) throws IOException,
+                        WebApplicationException {
+                    try {
+                        // do not close the channel, it would close the output stream
+                        WritableByteChannel target = Channels.newChannel(out);
+                        long size = fc.size();
+                        long position = 0;
+                        while (position < size)
+                            position += fc.transferTo(position, size - position, target);
+                    } finally {
+                        SafeClose.close(fc);
+                    }
+                }
+            };
+        } catch (NoSuchFileException e) {
+            remove(key, entry);
+        } catch (IOException e) {
+            LOG.warn("Failed to read cached rendered image {}:", entry.file, e);
+            remove(key, entry);
+        }
+        return null;
+    }
+
+    /**
+     * @return a writer which adds the image streamed to the client to the
+     *         cache, or <code>null</code> if the cache is disabled
+     */
+    public Writer newWriter(String key, String studyUID, String seriesUID, String iuid) {
+        Path dir;
+        long generation;
+        synchronized (this) {
+            dir = directory();
+            generation = invalidations;
+        }
+        if (dir == null)
+            return null;
+
+        return new Writer(key, dir, dir.resolve(fileName(key)), generation,
+                studyUID, seriesUID, iuid);
+    }
+
+    public void invalidate(Collection<String> studyUIDs, Collection<String> seriesUIDs,
+            Collection<String> iuids) {
+        int removed = 0;
+        synchronized (this) {
+            invalidations++;
+            for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+                Entry entry = iter.next();
+                if (studyUIDs.contains(entry.studyUID)
+                        || seriesUIDs.contains(entry.seriesUID)
+                        || iuids.contains(entry.iuid)) {
+                    iter.remove();
+                    totalSize -= entry.size;
+                    delete(entry.file);
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0)
+            LOG.info("Removed {} rendered images from cache", removed);
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    private Path directory() {
+        String path = arcDev().getWadoRenderedImageCacheDirectoryPath();
+        if (path == null) {
+            if (directory != null) {
+                clear();
+                directory = null;
+            }
+            return null;
+        }
+        Path dir = Paths.get(StringUtils.replaceSystemProperties(path));
+        if (!dir.equals(directory)) {
+            clear();
+            try {
+                Files.createDirectories(dir);
+                purge(dir);
+                directory = dir;
+            } catch (IOException e) {
+                LOG.warn("Failed to initialize cache for rendered images in {}:", dir, e);
+                return null;
+            }
+        }
+        return directory;
+    }
+
+    private void clear() {
+        for (Entry entry : entries.values())
+            delete(entry.file);
+        entries.clear();
+        totalSize = 0L;
+    }
+
+    /**
+     * Removes images cached by a previous run, which are not indexed.
+     */
+    private static void purge(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                "*{" + FILE_SUFFIX + "," + TMP_FILE_SUFFIX + "}")) {
+            for (Path file : files)
+                delete(file);
+        }
+    }
+
+    /**
+     * Moves the temporary file to the file of the cached image, unless the
+     * cache was invalidated or moved since the writer was created, so a stale
+     * image never replaces the file written by a newer writer.
+     *
+     * @return <code>false</code> if the image was discarded
+     */
+    private synchronized boolean put(String key, Path tmp, Entry entry, long generation)
+            throws IOException {
+        if (generation != invalidations || !entry.file.getParent().equals(directory))
+            return false;
+
+        Files.move(tmp, entry.file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Entry prev = entries.put(key, entry);
+        if (prev != null)
+            totalSize -= prev.size;
+        totalSize += entry.size;
+        long maxSize = arcDev().getWadoRenderedImageCacheMaxSize() * 1024L * 1024L;
+        for (Iterator<Entry> iter = entries.values().iterator();
+                totalSize > maxSize && iter.hasNext();) {
+            Entry eldest = iter.next();
+            iter.remove();
+            totalSize -= eldest.size;
+            delete(eldest.file);
+        }
+        return true;
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            totalSize -= entry.size;
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete {}:", file, e);
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (int i = 0; i < digest.length; i += 4)
+                sb.append(TagUtils.toHexString(
+                        (digest[i] & 0xff) << 24 | (digest[i + 1] & 0xff) << 16
+                                | (digest[i + 2] & 0xff) << 8 | (digest[i + 3] & 0xff)));
+            return sb.append(FILE_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes the image streamed to the client also to a temporary file, which
+     * is created by {@link #tee(OutputStream)} and added to the cache by
+     * {@link #commit()}.
+     */
+    public final class Writer {
+
+        private final String key;
+        private final Path dir;
+        private final Path file;
+        private final long generation;
+        private final String studyUID;
+        private final String seriesUID;
+        private final String iuid;
+        private Path tmp;
+        private OutputStream fileOut;
+        private boolean failed;
+        private boolean committed;
+
+        private Writer(String key, Path dir, Path file, long generation,
+                String studyUID, String seriesUID, String iuid) {
+            this.key = key;
+            this.dir = dir;
+            this.file = file;
+            this.generation = generation;
+            this.studyUID = studyUID;
+            this.seriesUID = seriesUID;
+            this.iuid = iuid;
+        }
+
+        /**
+         * Failures to write the temporary file do not affect the stream to
+         * the client, the image is just not cached.
+         */
+        public OutputStream tee(final OutputStream out) {
+            try {
+                tmp = Files.createTempFile(dir, null, TMP_FILE_SUFFIX);
+                fileOut = Files.newOutputStream(tmp);
+            } catch (IOException e) {
+                LOG.warn("Failed to create file in {} for caching rendered image:", dir, e);
+                failed = true;
+                return out;
+            }
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    if (!failed)
+                        try {
+                            fileOut.write(b);
+                        } catch (IOException e) {
+                            onWriteFailed(e);
+                        }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    if (!failed)
+                        try {
+                            fileOut.write(b, off, len);
+                        } catch (IOException e) {
+                            onWriteFailed(e);
+                        }
+                }
+            };
+        }
+
+        private void onWriteFailed(IOException e) {
+            LOG.warn("Failed to write rendered image to {}:", tmp, e);
+            failed = true;
+        }
+
+        public void commit() throws IOException {
+            if (failed || fileOut == null)
+                return;
+
+            fileOut.close();
+            committed = put(key, tmp,
+                    new Entry(file, Files.size(tmp), studyUID, seriesUID, iuid), generation);
+        }
+
+        /**
+         * Removes the temporary file, if the image was not committed or was
+         * discarded, because the cache was invalidated meanwhile.
+         */
+        public void close() {
+            SafeClose.close(fileOut);
+            if (tmp != null && !committed)
+                delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.sc.StructuralChangeContainer;
+import org.dcm4chee.archive.sc.StructuralChangeContext;
+import org.dcm4chee.archive.sc.StructuralChangeContext.InstanceIdentifier;
+import org.dcm4chee.archive.sc.StructuralChangeTransactionHook;
+import org.dcm4chee.archive.store.StoreContext;
+
+/**
+ * Removes rendered images of studies, series and instances affected by QC
+ * or IOCM rejection, and of instances replaced by a subsequent store, from
+ * the {@link RenderedImageCache}.
+ */
+@ApplicationScoped
+public class RenderedImageCacheInvalidator implements StructuralChangeTransactionHook {
+
+    @Inject
+    private RenderedImageCache cache;
+
+    @Override
+    public boolean beforeCommitStructuralChanges(StructuralChangeContainer changeContainer) {
+        return true;
+    }
+
+    @Override
+    public void afterCommitStructuralChanges(StructuralChangeContainer changeContainer) {
+        if (!cache.isEnabled())
+            return;
+
+        Set<String> studyUIDs = new HashSet<String>();
+        Set<String> seriesUIDs = new HashSet<String>();
+        Set<String> iuids = new HashSet<String>();
+        for (StructuralChangeContext ctx : changeContainer.getContexts()) {
+            studyUIDs.addAll(ctx.getAffectedStudyUIDs());
+            seriesUIDs.addAll(ctx.getAffectedSeriesUIDs());
+            addSopInstanceUIDs(ctx.getAffectedInstances(), iuids);
+            addSopInstanceUIDs(ctx.getSourceInstances(), iuids);
+            addSopInstanceUIDs(ctx.getTargetInstances(), iuids);
+        }
+        cache.invalidate(studyUIDs, seriesUIDs, iuids);
+    }
+
+    public void onStoreInstance(@Observes StoreContext storeContext) {
+        if (storeContext.getStoreAction() != StoreAction.REPLACE || !cache.isEnabled())
+            return;
+
+        cache.invalidate(Collections.<String>emptySet(), Collections.<String>emptySet(),
+                Collections.singleton(storeContext.getAttributes().getString(Tag.SOPInstanceUID)));
+    }
+
+    private static void addSopInstanceUIDs(Set<InstanceIdentifier> instances, Set<String> iuids) {
+        for (InstanceIdentifier instance : instances)
+            iuids.add(instance.getSopInstanceUID());
+    }
+}
@@ -136,6 +136,9 @@ public class WadoURI extends Wado {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private RenderedImageCache renderedImageCache;
+
     private CStoreSCUContext context;
 
     private static final int STATUS_NOT_IMPLEMENTED = 501;
@@ -555,6 +558,17 @@ public class WadoURI extends Wado {
 
     private Response retrieveImage(ArchiveInstanceLocator ref, final MediaType mediaType) {
         Attributes attrs = (Attributes) ref.getObject();
+        int frameNumberZeroBased = frameNumberZeroBased(attrs, mediaType);
+        if (!request.getQueryString().contains("overlays"))
+            overlays = arcAE.isWadoOverlayRendering();
+
+        String cacheKey = renderedImageCacheKey(ref.iuid, frameNumberZeroBased, mediaType);
+        StreamingOutput cachedImage = renderedImageCache.get(cacheKey);
+        if (cachedImage != null) {
+            LOG.debug("Retrieve rendered image of Instance[uid={}] from cache", ref.iuid);
+            return Response.ok(cachedImage, mediaType).build();
+        }
+
         ImageInputStream iis = null;
         ImageReader reader = null;
         ImageWriter imageWriter = null;
@@ -580,31 +594,11 @@ public class WadoURI extends Wado {
 
             ImageWriteParam imageWriteParam = getImageWriterParam(imageWriter);
 
-            int numberOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
-
-            int frameNumberZeroBased;
-            if (numberOfFrames == 1) { // single frame
-                if (frameNumber < 0 || frameNumber > 1)
-                    throw new WebApplicationException(Status.NOT_FOUND);
-
-                frameNumberZeroBased = 0; // first frame
-            } else { // multi frame
-                if (frameNumber != 0) {
-                    if (frameNumber < 0 || frameNumber > numberOfFrames)
-                        throw new WebApplicationException(Status.NOT_FOUND);
-
-                    frameNumberZeroBased = frameNumber - 1;
-                } else {
-                    if (mediaType == MediaTypes.IMAGE_GIF_TYPE) // animated GIF case
-                        frameNumberZeroBased = -1; // all frames
-                    else
-                        frameNumberZeroBased = 0; // first frame
-                }
-            }
-
             RenderedImageOutput renderedImageOutput = new RenderedImageOutput(reader, param, rows, columns, frameNumberZeroBased, imageWriter, imageWriteParam);
 
-            StreamingOutputWrapper wrapper = new StreamingOutputWrapper(renderedImageOutput, iis);
+            StreamingOutputWrapper wrapper = new StreamingOutputWrapper(renderedImageOutput, iis,
+                    renderedImageCache.newWriter(cacheKey, ref.getStudyInstanceUID(),
+                            ref.getSeriesInstanceUID(), ref.iuid));
 
             // make sure the stream/reader/writer is not closed early, but later on when doing the streaming
             iis = null;
@@ -628,6 +622,49 @@ public class WadoURI extends Wado {
         }
     }
 
+    private int frameNumberZeroBased(Attributes attrs, MediaType mediaType) {
+        int numberOfFrames = attrs.getInt(Tag.NumberOfFrames, 1);
+        if (numberOfFrames == 1) { // single frame
+            if (frameNumber < 0 || frameNumber > 1)
+                throw new WebApplicationException(Status.NOT_FOUND);
+
+            return 0; // first frame
+        }
+        // multi frame
+        if (frameNumber != 0) {
+            if (frameNumber < 0 || frameNumber > numberOfFrames)
+                throw new WebApplicationException(Status.NOT_FOUND);
+
+            return frameNumber - 1;
+        }
+        if (mediaType == MediaTypes.IMAGE_GIF_TYPE) // animated GIF case
+            return -1; // all frames
+
+        return 0; // first frame
+    }
+
+    /**
+     * Key of the rendered image in the {@link RenderedImageCache}, containing
+     * all request parameters which affect the rendered image.
+     */
+    private String renderedImageCacheKey(String iuid, int frameNumberZeroBased, MediaType mediaType) {
+        StringBuilder sb = new StringBuilder(128)
+                .append(iuid)
+                .append("|frame=").append(frameNumberZeroBased)
+                .append("|rows=").append(rows)
+                .append("|columns=").append(columns)
+                .append("|windowCenter=").append(windowCenter)
+                .append("|windowWidth=").append(windowWidth)
+                .append("|overlays=").append(overlays)
+                .append("|imageQuality=").append(imageQuality)
+                .append("|presentationUID=").append(presentationUID)
+                .append("|contentType=").append(mediaType);
+        if (region != null)
+            sb.append("|region=").append(region.left).append(',').append(region.top)
+                    .append(',').append(region.right).append(',').append(region.bottom);
+        return sb.toString();
+    }
+
     private ImageInputStream getImageInputStream(ArchiveInstanceLocator ref) throws IOException {
         ImageInputStream iis = null;
         for (; ; ) {
@@ -651,10 +688,13 @@ public class WadoURI extends Wado {
 
         private final RenderedImageOutput renderedImageOutput;
         private final ImageInputStream inputStream;
+        private final RenderedImageCache.Writer cacheWriter;
 
-        public StreamingOutputWrapper(RenderedImageOutput renderedImageOutput, ImageInputStream inputStream) {
+        public StreamingOutputWrapper(RenderedImageOutput renderedImageOutput, ImageInputStream inputStream,
+                RenderedImageCache.Writer cacheWriter) {
             this.renderedImageOutput = renderedImageOutput;
             this.inputStream = inputStream;
+            this.cacheWriter = cacheWriter;
         }
 
         @Override
@@ -664,7 +704,7 @@ public class WadoURI extends Wado {
             // 2) we want to run it through the WeightWatcher
 
             try {
-                weightWatcher.execute(new RenditionTask(renderedImageOutput, output));
+                weightWatcher.execute(new RenditionTask(renderedImageOutput, output, cacheWriter));
             } catch (Exception e) {
                 if (e instanceof IOException)
                     throw (IOException) e;
@@ -674,6 +714,8 @@ public class WadoURI extends Wado {
                     throw new RuntimeException(e); // should not happen
             } finally {
                 inputStream.close();
+                if (cacheWriter != null)
+                    cacheWriter.close();
             }
         }
     }
@@ -681,10 +723,13 @@ public class WadoURI extends Wado {
     private static class RenditionTask implements MemoryConsumingTask<Void> {
         private final RenderedImageOutput renderedImageOutput;
         private final OutputStream output;
+        private final RenderedImageCache.Writer cacheWriter;
 
-        public RenditionTask(RenderedImageOutput renderedImageOutput, OutputStream output) {
+        public RenditionTask(RenderedImageOutput renderedImageOutput, OutputStream output,
+                RenderedImageCache.Writer cacheWriter) {
             this.renderedImageOutput = renderedImageOutput;
             this.output = output;
+            this.cacheWriter = cacheWriter;
         }
 
         @Override
@@ -704,7 +749,12 @@ public class WadoURI extends Wado {
 
         @Override
         public Void call() throws IOException {
-            renderedImageOutput.write(output);
+            if (cacheWriter == null) {
+                renderedImageOutput.write(output);
+            } else {
+                renderedImageOutput.write(cacheWriter.tee(output));
+                cacheWriter.commit();
+            }
             return null;
         }
     }
@@ -725,8 +775,6 @@ public class WadoURI extends Wado {
     private void init(DicomImageReadParam param)
             throws WebApplicationException, IOException {
 
-        if (!request.getQueryString().contains("overlays"))
-            overlays = arcAE.isWadoOverlayRendering();
         //set overlay activation mask
         param.setOverlayActivationMask(overlays ? 0xf : 0x0);
         param.setWindowCenter(windowCenter);